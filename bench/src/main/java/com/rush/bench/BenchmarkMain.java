@@ -0,0 +1,96 @@
+package com.rush.bench;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Runs the benchmarks, stores the scores and compares them against the tracked baseline.
+ *
+ * Usage: BenchmarkMain [baseline.csv [results.csv]]
+ * Exits with 1 if any benchmark got slower than the baseline by more than REGRESSION_THRESHOLD.
+ * To accept the new scores, copy the results file over the baseline.
+ */
+public class BenchmarkMain {
+    private static final double REGRESSION_THRESHOLD = 0.15;
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        File baselineFile = new File(args.length > 0 ? args[0] : "bench/baseline.csv");
+        File resultsFile = new File(args.length > 1 ? args[1] : "bench/target/results.csv");
+
+        Options opt = new OptionsBuilder()
+                .include(GameBoardBenchmark.class.getSimpleName())
+                .include(QuadBatchBenchmark.class.getSimpleName())
+                .build();
+        Collection<RunResult> results = new Runner(opt).run();
+
+        Map<String, Double> scores = new TreeMap<String, Double>();
+        for (RunResult result : results) {
+            String key = result.getParams().getBenchmark() + ":" + result.getParams().getParam("mBoardSize");
+            scores.put(key, result.getPrimaryResult().getScore());
+        }
+        writeScores(resultsFile, scores);
+        System.out.println("Results written to " + resultsFile);
+
+        if (!baselineFile.exists()) {
+            System.out.println("No baseline at " + baselineFile + ", nothing to compare against");
+            return;
+        }
+        Map<String, Double> baseline = readScores(baselineFile);
+        int numRegressions = 0;
+        for (Map.Entry<String, Double> entry : scores.entrySet()) {
+            Double baseScore = baseline.get(entry.getKey());
+            if (baseScore == null) {
+                continue;
+            }
+            double change = entry.getValue()/baseScore - 1.0;
+            if (change > REGRESSION_THRESHOLD) {
+                System.out.printf("REGRESSION %s: %.1f -> %.1f ns/op (%+.0f%%)%n",
+                        entry.getKey(), baseScore, entry.getValue(), change*100);
+                numRegressions++;
+            }
+        }
+        if (numRegressions > 0) {
+            System.exit(1);
+        }
+        System.out.println("No regressions against " + baselineFile);
+    }
+
+    static void writeScores(File file, Map<String, Double> scores) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.println("benchmark,ns_per_op");
+            for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                out.println(entry.getKey() + "," + String.format(Locale.US, "%.3f", entry.getValue()));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static Map<String, Double> readScores(File file) throws IOException {
+        Map<String, Double> scores = new HashMap<String, Double>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line = in.readLine();
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length == 2) {
+                    scores.put(parts[0], Double.parseDouble(parts[1]));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,169 @@
+package com.rush.bench;
+
+import com.rush.GameBoard;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Board setup, shuffling and match resolution for the board sizes the game goes through.
+ * The games are dealt from a fixed seed, so every invocation plays exactly the same game.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameBoardBenchmark {
+    private static final long SEED = 0x4D656D796C6F6EL;
+
+    @Param({"3x2", "6x5", "12x11", "18x12", "24x12"})
+    public String mBoardSize;
+
+    private int mNumCardsW;
+    private int mNumCardsH;
+
+    private GameBoard mBoard = new GameBoard(SEED);
+    private Random mRandom = new Random(SEED);
+    private int[] mVariations = new int[GameBoard.NUM_VARIATIONS];
+    private int[] mCells;
+
+    //  flip sequences for the seeded deal
+    private int[] mPerfectFlips;
+    private int[] mMissingFlips;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] dims = mBoardSize.split("x");
+        mNumCardsW = Integer.parseInt(dims[0]);
+        mNumCardsH = Integer.parseInt(dims[1]);
+
+        for (int i = 0; i < mVariations.length; i++) {
+            mVariations[i] = i + 1;
+        }
+        mCells = new int[mNumCardsW*mNumCardsH];
+        for (int i = 0; i < mCells.length; i++) {
+            mCells[i] = i;
+        }
+
+        deal();
+        mPerfectFlips = getPerfectFlips(mBoard);
+        mMissingFlips = getMissingFlips(mPerfectFlips);
+    }
+
+    /**
+     * Card indices in the order of a game without misses: the two cards of each pair in turn
+     */
+    static int[] getPerfectFlips(GameBoard board) {
+        int numCells = board.getNumCells();
+        int[] firstPos = new int[GameBoard.NUM_VARIATIONS + 1];
+        java.util.Arrays.fill(firstPos, -1);
+        int[] flips = new int[numCells - (numCells & 1)];
+        int numFlips = 0;
+        for (int i = 0; i < numCells; i++) {
+            int face = Math.abs(board.getCard(i));
+            if (face == 0) {
+                continue;
+            }
+            if (firstPos[face] == -1) {
+                firstPos[face] = i;
+            } else {
+                flips[numFlips++] = firstPos[face];
+                flips[numFlips++] = i;
+            }
+        }
+        return flips;
+    }
+
+    /**
+     * Card indices for a game, which misses once before matching every pair but the last one
+     */
+    static int[] getMissingFlips(int[] perfectFlips) {
+        int numPairs = perfectFlips.length/2;
+        int[] flips = new int[numPairs*4 - 2];
+        int numFlips = 0;
+        for (int i = 0; i < numPairs; i++) {
+            if (i + 1 < numPairs) {
+                flips[numFlips++] = perfectFlips[i*2];
+                flips[numFlips++] = perfectFlips[i*2 + 2];
+            }
+            flips[numFlips++] = perfectFlips[i*2];
+            flips[numFlips++] = perfectFlips[i*2 + 1];
+        }
+        return flips;
+    }
+
+    @Benchmark
+    public int[] shuffleVariations() {
+        GameBoard.shuffleArray(mVariations, mRandom);
+        return mVariations;
+    }
+
+    @Benchmark
+    public int[] shuffleCells() {
+        GameBoard.shuffleArray(mCells, mRandom);
+        return mCells;
+    }
+
+    @Benchmark
+    public int deal() {
+        mBoard.setSeed(SEED);
+        mBoard.startGame(mNumCardsW, mNumCardsH);
+        return mBoard.getCard(0);
+    }
+
+    /**
+     * Deal and one flip per card, every second flip resolving a match
+     */
+    @Benchmark
+    public int playPerfectGame() {
+        deal();
+        int[] flips = mPerfectFlips;
+        int result = 0;
+        for (int i = 0; i < flips.length; i++) {
+            result = mBoard.flip(flips[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Deal and a miss before (almost) every match
+     */
+    @Benchmark
+    public int playGameWithMisses() {
+        deal();
+        int[] flips = mMissingFlips;
+        int result = 0;
+        for (int i = 0; i < flips.length; i++) {
+            result = mBoard.flip(flips[i]);
+        }
+        return result;
+    }
+
+    /**
+     * The winning flip on a board with a single pair left, i.e. the end-of-game detection
+     */
+    @State(Scope.Thread)
+    public static class LastPairState {
+        GameBoard mBoard = new GameBoard(SEED);
+        int mLastCardIdx;
+
+        @Setup(Level.Invocation)
+        public void setup(GameBoardBenchmark benchmark) {
+            mBoard.setSeed(SEED);
+            mBoard.startGame(benchmark.mNumCardsW, benchmark.mNumCardsH);
+            int[] flips = benchmark.mPerfectFlips;
+            for (int i = 0; i < flips.length - 1; i++) {
+                mBoard.flip(flips[i]);
+            }
+            mLastCardIdx = flips[flips.length - 1];
+        }
+    }
+
+    @Benchmark
+    public int resolveLastPair(LastPairState state) {
+        return state.mBoard.flip(state.mLastCardIdx);
+    }
+}
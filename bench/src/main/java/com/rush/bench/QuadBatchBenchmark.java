@@ -0,0 +1,59 @@
+package com.rush.bench;
+
+import com.rush.QuadBatch;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the card batch of the GL renderer, i.e. the per-frame CPU cost of drawing the board,
+ * with every card face up (a back and a face quad per card) as the worst case.
+ * No GL is involved, the batch ends with the copy into the direct buffers handed over to GL.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QuadBatchBenchmark {
+    private static final int SURFACE_W = 800;
+    private static final int SURFACE_H = 480;
+
+    @Param({"3x2", "6x5", "12x11", "18x12", "24x12"})
+    public String mBoardSize;
+
+    private int mNumCardsW;
+    private int mNumCardsH;
+    private QuadBatch mBatch = new QuadBatch(16);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] dims = mBoardSize.split("x");
+        mNumCardsW = Integer.parseInt(dims[0]);
+        mNumCardsH = Integer.parseInt(dims[1]);
+        //  the batch gets grown once, as in the game
+        buildBoard();
+    }
+
+    @Benchmark
+    public int buildBoard() {
+        QuadBatch batch = mBatch;
+        batch.clear();
+        float cardW = SURFACE_W/(float) mNumCardsW;
+        float cardH = SURFACE_H/(float) mNumCardsH;
+        for (int j = 0; j < mNumCardsH; j++) {
+            for (int i = 0; i < mNumCardsW; i++) {
+                float x = i*cardW;
+                float y = j*cardH;
+                int slot = j*mNumCardsW + i;
+                float u = (slot % 16)/16.0f;
+                float v = (slot / 16)/16.0f;
+                batch.add(x, y, x + cardW, y + cardH, 0.0f, 0.9375f, 0.0625f, 1.0f, 1.0f);
+                batch.add(x, y, x + cardW, y + cardH, u, v, u + 0.0625f, v + 0.0625f, 1.0f);
+            }
+        }
+        batch.flush();
+        return batch.getNumIndices();
+    }
+}
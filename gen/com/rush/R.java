@@ -25,5 +25,16 @@ public final class R {
     }
     public static final class string {
         public static final int app_name=0x7f040000;
+        public static final int levels=0x7f040005;
+        public static final int match_server=0x7f040008;
+        public static final int menu_continuous=0x7f040009;
+        public static final int menu_count_allocs=0x7f04000a;
+        public static final int menu_gl_renderer=0x7f04000b;
+        public static final int menu_network=0x7f040007;
+        public static final int menu_players=0x7f040006;
+        public static final int menu_replay=0x7f040004;
+        public static final int menu_save_record=0x7f040003;
+        public static final int menu_save_trace=0x7f040002;
+        public static final int menu_stats=0x7f040001;
     }
 }
@@ -0,0 +1,201 @@
+package com.rush;
+
+/**
+ * Placement of the card cells on the screen, free of any Android dependencies.
+ *
+ * The board keeps the card aspect ratio and gets fitted into the surface, but the cells do not
+ * get smaller than the minimum cell width, and can be zoomed in from there. A board, which is
+ * smaller than the surface, gets centered with the free space (letterbox) left on two sides.
+ * A larger one gets panned around by the viewport center, given as the fraction of the board
+ * width/height, and never leaves the surface partially empty. All the cells have the same
+ * integer size, so the position of a cell, the cell under a point and the range of the cells
+ * inside of a rectangle are all plain arithmetic, independent of the board size.
+ * The layout is immutable, a new one gets built whenever the board, the surface size or the viewport changes.
+ */
+public final class BoardLayout {
+    private final int mSurfaceW;
+    private final int mSurfaceH;
+    private final int mNumCardsW;
+    private final int mNumCardsH;
+    private final int mCardW;
+    private final int mCardH;
+    private final int mMinCellW;
+    private final float mZoom;
+    private final int mCellW;
+    private final int mCellH;
+    private final int mLeft;
+    private final int mTop;
+
+    public BoardLayout(int surfaceW, int surfaceH, int numCardsW, int numCardsH, int cardW, int cardH) {
+        this(surfaceW, surfaceH, numCardsW, numCardsH, cardW, cardH, 1, 1.0f, 0.5f, 0.5f);
+    }
+
+    /**
+     * @param minCellW the cell width, which the fitted cells do not get smaller than
+     * @param zoom the cell size relative to the fitted one, at least 1
+     * @param centerX the board point at the center of the surface, 0 for the left edge and 1 for the right one
+     * @param centerY the same for the top and the bottom
+     */
+    public BoardLayout(int surfaceW, int surfaceH, int numCardsW, int numCardsH, int cardW, int cardH,
+            int minCellW, float zoom, float centerX, float centerY) {
+        mSurfaceW = Math.max(surfaceW, 1);
+        mSurfaceH = Math.max(surfaceH, 1);
+        mNumCardsW = Math.max(numCardsW, 1);
+        mNumCardsH = Math.max(numCardsH, 1);
+        mCardW = cardW;
+        mCardH = cardH;
+        mMinCellW = Math.max(minCellW, 1);
+        mZoom = Math.max(zoom, 1.0f);
+        float cardAspect = (float)cardW/cardH;
+        float targetAspect = cardAspect*mNumCardsW/mNumCardsH;
+        float canvasW = mSurfaceW;
+        float canvasH = mSurfaceH;
+        float bw, bh;
+        if (targetAspect < canvasW/canvasH) {
+            //  free space to the left/right
+            bh = canvasH;
+            bw = mNumCardsW*cardAspect*canvasH/mNumCardsH;
+        } else {
+            //  free space to the top/bottom
+            bw = canvasW;
+            bh = mNumCardsH*canvasW/mNumCardsW/cardAspect;
+        }
+        float cellW = Math.max(bw/mNumCardsW, mMinCellW)*mZoom;
+        mCellW = Math.max((int) cellW, 1);
+        mCellH = Math.max((int) (cellW/cardAspect), 1);
+        mLeft = getOrigin(mSurfaceW, mCellW*mNumCardsW, centerX);
+        mTop = getOrigin(mSurfaceH, mCellH*mNumCardsH, centerY);
+    }
+
+    /**
+     * Screen position of the board edge, which puts the board point to the surface center
+     */
+    private static int getOrigin(int surfaceSize, int boardSize, float center) {
+        if (boardSize <= surfaceSize) {
+            //  the rounding leftovers go to the margins, so that the cells are centered
+            return (surfaceSize - boardSize)/2;
+        }
+        int origin = surfaceSize/2 - (int) (center*boardSize);
+        return Math.min(Math.max(origin, surfaceSize - boardSize), 0);
+    }
+
+    /**
+     * The same board and surface with the viewport center moved by the distance on the screen
+     */
+    public BoardLayout scrolledBy(int dx, int dy) {
+        return new BoardLayout(mSurfaceW, mSurfaceH, mNumCardsW, mNumCardsH, mCardW, mCardH, mMinCellW, mZoom,
+                getCenterX() + (float) dx/(mCellW*mNumCardsW), getCenterY() + (float) dy/(mCellH*mNumCardsH));
+    }
+
+    /**
+     * The same board and surface zoomed around the viewport center
+     */
+    public BoardLayout zoomedTo(float zoom) {
+        return new BoardLayout(mSurfaceW, mSurfaceH, mNumCardsW, mNumCardsH, mCardW, mCardH, mMinCellW, zoom,
+                getCenterX(), getCenterY());
+    }
+
+    /**
+     * Whether the board does not fit into the surface, so that there is anything to scroll
+     */
+    public boolean isScrollable() {
+        return getRight() - mLeft > mSurfaceW || getBottom() - mTop > mSurfaceH;
+    }
+
+    public float getZoom() {
+        return mZoom;
+    }
+
+    /**
+     * The board point at the surface center, as the fraction of the board width
+     */
+    public float getCenterX() {
+        return (float) (mSurfaceW/2 - mLeft)/(mCellW*mNumCardsW);
+    }
+
+    public float getCenterY() {
+        return (float) (mSurfaceH/2 - mTop)/(mCellH*mNumCardsH);
+    }
+
+    public int getNumCardsW() {
+        return mNumCardsW;
+    }
+
+    public int getNumCardsH() {
+        return mNumCardsH;
+    }
+
+    public int getCellW() {
+        return mCellW;
+    }
+
+    public int getCellH() {
+        return mCellH;
+    }
+
+    public int getLeft() {
+        return mLeft;
+    }
+
+    public int getTop() {
+        return mTop;
+    }
+
+    public int getRight() {
+        return mLeft + mCellW*mNumCardsW;
+    }
+
+    public int getBottom() {
+        return mTop + mCellH*mNumCardsH;
+    }
+
+    public int getCellLeft(int cardIdx) {
+        return mLeft + (cardIdx % mNumCardsW)*mCellW;
+    }
+
+    public int getCellTop(int cardIdx) {
+        return mTop + (cardIdx / mNumCardsW)*mCellH;
+    }
+
+    /**
+     * First column of the cells, which reach into the screen area right of x
+     */
+    public int getFirstColumn(int x) {
+        return Math.max(x - mLeft, 0)/mCellW;
+    }
+
+    /**
+     * Last column of the cells, which reach into the screen area left of x (exclusive),
+     * less than getFirstColumn() if there are none
+     */
+    public int getLastColumn(int x) {
+        int dx = x - mLeft;
+        return (dx > 0) ? Math.min((dx - 1)/mCellW, mNumCardsW - 1) : -1;
+    }
+
+    public int getFirstRow(int y) {
+        return Math.max(y - mTop, 0)/mCellH;
+    }
+
+    public int getLastRow(int y) {
+        int dy = y - mTop;
+        return (dy > 0) ? Math.min((dy - 1)/mCellH, mNumCardsH - 1) : -1;
+    }
+
+    /**
+     * Index of the card cell under the point, or -1 if the point is outside of the board
+     */
+    public int getCardIdx(int x, int y) {
+        int dx = x - mLeft;
+        int dy = y - mTop;
+        if (dx < 0 || dy < 0) {
+            return -1;
+        }
+        int cardI = dx / mCellW;
+        int cardJ = dy / mCellH;
+        if (cardI >= mNumCardsW || cardJ >= mNumCardsH) {
+            return -1;
+        }
+        return cardJ*mNumCardsW + cardI;
+    }
+}
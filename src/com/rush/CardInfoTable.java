@@ -0,0 +1,93 @@
+package com.rush;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only access to the precompiled card metadata (see src-assets/languages.txt).
+ *
+ * File layout, all numbers big-endian:
+ *   int      MAGIC
+ *   int      VERSION
+ *   int      number of entries
+ *   int[]    offset of every entry from the start of the file
+ *   entries: short year (0 if unknown), then name, url and fun fact,
+ *            each as an unsigned short byte length followed by UTF-8 bytes
+ *
+ * Any entry can be read in constant time, straight from a (memory-mapped) buffer.
+ */
+public class CardInfoTable {
+    public static final int MAGIC = 0x4D434931;    //  "MCI1"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 12;
+
+    private final ByteBuffer mData;
+    private final int mNumEntries;
+
+    //  names are used for the captions, so they are decoded only once
+    private final String[] mNames;
+
+    public CardInfoTable(ByteBuffer data) {
+        mData = data;
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a card info table");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported card info table version: " + data.getInt(4));
+        }
+        mNumEntries = data.getInt(8);
+        if (mNumEntries < 0 || HEADER_SIZE + mNumEntries*4 > data.limit()) {
+            throw new IllegalArgumentException("Corrupt card info table");
+        }
+        mNames = new String[mNumEntries];
+    }
+
+    public int size() {
+        return mNumEntries;
+    }
+
+    public int getYear(int entry) {
+        return mData.getShort(getOffset(entry)) & 0xFFFF;
+    }
+
+    public String getName(int entry) {
+        String name = mNames[entry];
+        if (name == null) {
+            name = getString(getOffset(entry) + 2);
+            mNames[entry] = name;
+        }
+        return name;
+    }
+
+    public String getUrl(int entry) {
+        return getString(skipString(getOffset(entry) + 2));
+    }
+
+    public String getFunFact(int entry) {
+        return getString(skipString(skipString(getOffset(entry) + 2)));
+    }
+
+    private int getOffset(int entry) {
+        if (entry < 0 || entry >= mNumEntries) {
+            throw new IndexOutOfBoundsException("No card info entry " + entry);
+        }
+        return mData.getInt(HEADER_SIZE + entry*4);
+    }
+
+    private int skipString(int pos) {
+        return pos + 2 + (mData.getShort(pos) & 0xFFFF);
+    }
+
+    private String getString(int pos) {
+        int len = mData.getShort(pos) & 0xFFFF;
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = mData.get(pos + 2 + i);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+}
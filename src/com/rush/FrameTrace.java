@@ -0,0 +1,206 @@
+package com.rush;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Timings of the game loop phases for the last frames, free of any Android dependencies.
+ *
+ * Every frame gets a slot in a ring buffer with the start and the duration of each phase
+ * (in nanoseconds, -1 duration if the phase did not run on that frame) and a few counters.
+ * The frame being recorded has a slot of its own, so the queries, which may run in the middle
+ * of a frame, only ever see the completed frames.
+ * Recording and the percentile queries do not allocate, so the trace can stay on all the time.
+ * The frames can be exported in the Trace Event JSON format, which chrome://tracing and
+ * Perfetto open directly.
+ */
+public class FrameTrace {
+    public static final int PHASE_FRAME = 0;
+    public static final int PHASE_INPUT = 1;
+    public static final int PHASE_UPDATE = 2;
+    public static final int PHASE_LOCK = 3;
+    public static final int PHASE_DRAW = 4;
+    public static final int PHASE_POST = 5;
+    public static final int NUM_PHASES = 6;
+
+    private static final String[] PHASE_NAMES = { "frame", "input", "update", "lockCanvas", "draw", "unlockCanvasAndPost" };
+
+    private final int mCapacity;
+    //  the completed frames, and the one being recorded
+    private final int mNumSlots;
+    private final long[] mPhaseStart;
+    private final long[] mPhaseDuration;
+    private final int[] mNumGcs;
+    private final int[] mNumAllocs;
+    private final int[] mNumAnims;
+    private final long[] mSortBuffer;
+
+    //  number of frames recorded since the start, the current one lives at mNumFrames % mNumSlots
+    private int mNumFrames = 0;
+
+    public FrameTrace(int capacity) {
+        mCapacity = capacity;
+        mNumSlots = capacity + 1;
+        mPhaseStart = new long[mNumSlots*NUM_PHASES];
+        mPhaseDuration = new long[mNumSlots*NUM_PHASES];
+        mNumGcs = new int[mNumSlots];
+        mNumAllocs = new int[mNumSlots];
+        mNumAnims = new int[mNumSlots];
+        mSortBuffer = new long[capacity];
+    }
+
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    /**
+     * Starts recording the next frame, overwriting the oldest one if the buffer is full
+     */
+    public void beginFrame() {
+        int base = (mNumFrames % mNumSlots)*NUM_PHASES;
+        Arrays.fill(mPhaseDuration, base, base + NUM_PHASES, -1L);
+    }
+
+    public void setPhase(int phase, long startTime, long endTime) {
+        int idx = (mNumFrames % mNumSlots)*NUM_PHASES + phase;
+        mPhaseStart[idx] = startTime;
+        mPhaseDuration[idx] = endTime - startTime;
+    }
+
+    /**
+     * Completes the current frame with its counters
+     */
+    public void endFrame(int numGcs, int numAllocs, int numAnims) {
+        int slot = mNumFrames % mNumSlots;
+        mNumGcs[slot] = numGcs;
+        mNumAllocs[slot] = numAllocs;
+        mNumAnims[slot] = numAnims;
+        mNumFrames++;
+    }
+
+    /**
+     * Number of the completed frames in the buffer
+     */
+    public int getNumFrames() {
+        return Math.min(mNumFrames, mCapacity);
+    }
+
+    public int getNumTotalFrames() {
+        return mNumFrames;
+    }
+
+    /**
+     * Percentile (0..100) of the phase duration over the frames in the buffer the phase ran on,
+     * in nanoseconds, or -1 if the phase did not run at all
+     */
+    public long getPercentile(int phase, int percent) {
+        int numFrames = getNumFrames();
+        int n = 0;
+        for (int i = 0; i < numFrames; i++) {
+            long duration = mPhaseDuration[getSlot(i)*NUM_PHASES + phase];
+            if (duration >= 0) {
+                mSortBuffer[n++] = duration;
+            }
+        }
+        if (n == 0) {
+            return -1;
+        }
+        Arrays.sort(mSortBuffer, 0, n);
+        return mSortBuffer[Math.min((n*percent)/100, n - 1)];
+    }
+
+    /**
+     * Sum of the GC invocations over the frames in the buffer
+     */
+    public int getNumGcs() {
+        int numGcs = 0;
+        int numFrames = getNumFrames();
+        for (int i = 0; i < numFrames; i++) {
+            numGcs += mNumGcs[getSlot(i)];
+        }
+        return numGcs;
+    }
+
+    public int getNumAnims() {
+        return (mNumFrames > 0) ? mNumAnims[(mNumFrames - 1) % mNumSlots] : 0;
+    }
+
+    /**
+     * Slot of the i-th of the completed frames in the buffer, oldest first
+     */
+    private int getSlot(int i) {
+        return (mNumFrames - getNumFrames() + i) % mNumSlots;
+    }
+
+    /**
+     * Writes the frames in the buffer, oldest first, as Trace Event JSON: a complete ("X") event
+     * per phase and a counter ("C") event per frame, with the timestamps relative to the first frame
+     */
+    public void writeTraceEvents(Writer out) throws IOException {
+        int numFrames = getNumFrames();
+        long baseTime = mPhaseStart[getSlot(0)*NUM_PHASES + PHASE_FRAME];
+        out.write("{\"traceEvents\":[\n");
+        boolean isFirst = true;
+        for (int i = 0; i < numFrames; i++) {
+            int slot = getSlot(i);
+            for (int phase = 0; phase < NUM_PHASES; phase++) {
+                int idx = slot*NUM_PHASES + phase;
+                if (mPhaseDuration[idx] < 0) {
+                    continue;
+                }
+                out.write(isFirst ? "" : ",\n");
+                isFirst = false;
+                out.write("{\"name\":\"" + PHASE_NAMES[phase] + "\",\"ph\":\"X\",\"pid\":1,\"tid\":1,\"ts\":"
+                        + toMicros(mPhaseStart[idx] - baseTime) + ",\"dur\":" + toMicros(mPhaseDuration[idx]) + "}");
+            }
+            long frameStart = mPhaseStart[slot*NUM_PHASES + PHASE_FRAME];
+            out.write(isFirst ? "" : ",\n");
+            isFirst = false;
+            out.write("{\"name\":\"counters\",\"ph\":\"C\",\"pid\":1,\"tid\":1,\"ts\":" + toMicros(frameStart - baseTime)
+                    + ",\"args\":{\"gcs\":" + mNumGcs[slot] + ",\"allocs\":" + mNumAllocs[slot]
+                    + ",\"anims\":" + mNumAnims[slot] + "}}");
+        }
+        out.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+    }
+
+    private static String toMicros(long nanos) {
+        //  keep the sub-microsecond part, the phases of a fast frame are that short
+        return Long.toString(nanos/1000) + "." + (char) ('0' + (nanos % 1000)/100);
+    }
+
+    /**
+     * Appends the duration in milliseconds with one decimal, returns the new end of the text
+     */
+    public static int appendMillis(char[] text, int pos, long nanos) {
+        if (nanos < 0) {
+            text[pos++] = '-';
+            return pos;
+        }
+        long tenths = (nanos + 50000)/100000;
+        pos = appendInt(text, pos, (int) (tenths/10));
+        text[pos++] = '.';
+        text[pos++] = (char) ('0' + tenths % 10);
+        return pos;
+    }
+
+    /**
+     * Appends the non-negative number, returns the new end of the text
+     */
+    public static int appendInt(char[] text, int pos, int value) {
+        int numDigits = 1;
+        for (int v = value/10; v > 0; v /= 10) {
+            numDigits++;
+        }
+        for (int i = numDigits - 1; i >= 0; i--) {
+            text[pos + i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + numDigits;
+    }
+
+    public static int appendString(char[] text, int pos, String str) {
+        str.getChars(0, str.length(), text, pos);
+        return pos + str.length();
+    }
+}
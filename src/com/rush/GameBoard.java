@@ -0,0 +1,423 @@
+package com.rush;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The game rules, free of any Android dependencies.
+ *
+ * A card value is the card face (1..NUM_VARIATIONS), negative when the card lies face down
+ * and 0 when the card has already been matched and removed from the board.
+ * Boards with more pairs than there are faces deal the faces over again, so a face may lie
+ * on the board several pairs over, and then any two cards with the face make a match.
+ *
+ * The board goes through the following states:
+ *   STATE_NO_CARD_FLIPPED  - waiting for the first card of a pair
+ *   STATE_ONE_CARD_FLIPPED - one card is face up, waiting for the second one
+ *   STATE_GAME_OVER        - all the pairs have been matched
+ * The cards get dealt from a seeded random generator, so the same seed gives the same games.
+ */
+public class GameBoard {
+    public static final int NUM_VARIATIONS = 12*12;
+    //  the board size limit, keeping the card indices within the snapshot range
+    public static final int MAX_NUM_CELLS = 128*128;
+
+    public static final int STATE_NO_CARD_FLIPPED = 0;
+    public static final int STATE_ONE_CARD_FLIPPED = 1;
+    public static final int STATE_GAME_OVER = 2;
+
+    //  results of flip()
+    public static final int FLIP_IGNORED = 0;
+    public static final int FLIP_FIRST = 1;
+    public static final int FLIP_MATCH = 2;
+    public static final int FLIP_MISS = 3;
+    public static final int FLIP_WIN = 4;
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private final Random mRandom;
+    private final int[] mVariations = new int[NUM_VARIATIONS];
+
+    private int mNumCardsW;
+    private int mNumCardsH;
+    private int[] mCards = new int[0];
+
+    //  the cards of every face still on the board chained by position: the first one of the face,
+    //  and the next and the previous one of every card (-1 at the ends of the chain),
+    //  the matched cards get unlinked, so the lookups of a face only ever touch the cards left
+    private final int[] mFirstFacePosition = new int[NUM_VARIATIONS + 1];
+    private int[] mNextFacePosition = new int[0];
+    private int[] mPrevFacePosition = new int[0];
+    private int mNumPairs = 0;
+    private int mNumRemainingPairs = 0;
+    private int mNumFaceDownCards = 0;
+
+    private int mState = STATE_NO_CARD_FLIPPED;
+    private int mFlippedCardIdx = -1;
+    private int mPrevFlippedCardIdx = -1;
+    private int mNumMisses = 0;
+
+    public GameBoard() {
+        mRandom = new Random();
+    }
+
+    public GameBoard(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Randomly shuffles an int array using Fisher-Yates algorithm
+     */
+    public static void shuffleArray(int[] arr, Random generator) {
+        for (int i = arr.length - 1; i > 0; i--) {
+            int k = generator.nextInt(i + 1);
+            int val = arr[k];
+            arr[k] = arr[i];
+            arr[i] = val;
+        }
+    }
+
+    /**
+     * Whether a board of the size can be dealt, with at least one pair on it
+     */
+    public static boolean isValidSize(int numCardsW, int numCardsH) {
+        if (numCardsW <= 0 || numCardsH <= 0) {
+            return false;
+        }
+        long numCells = (long) numCardsW*numCardsH;
+        //  a single cell has no pair, and the game could never be won
+        return numCells >= 2 && numCells <= MAX_NUM_CELLS;
+    }
+
+    /**
+     * Restarts the random generator, so that the following deals are reproducible
+     */
+    public void setSeed(long seed) {
+        mRandom.setSeed(seed);
+    }
+
+    /**
+     * Deals a new game, with all the cards face down
+     */
+    public void startGame(int numCardsW, int numCardsH) {
+        if (!isValidSize(numCardsW, numCardsH)) {
+            throw new IllegalArgumentException("Bad board size " + numCardsW + "x" + numCardsH);
+        }
+        mNumCardsW = numCardsW;
+        mNumCardsH = numCardsH;
+        mNumMisses = 0;
+        mState = STATE_NO_CARD_FLIPPED;
+        mFlippedCardIdx = -1;
+        mPrevFlippedCardIdx = -1;
+
+        // select random subset of available card variations
+        for (int i = 0; i < NUM_VARIATIONS; i++) {
+            mVariations[i] = i + 1;
+        }
+        shuffleArray(mVariations, mRandom);
+
+        // create and shuffle the cards
+        int numCells = mNumCardsW * mNumCardsH;
+        if (mCards.length != numCells) {
+            mCards = new int[numCells];
+            mNextFacePosition = new int[numCells];
+            mPrevFacePosition = new int[numCells];
+        }
+        int numCards = numCells / 2;
+
+        for (int i = 0; i < numCards; i++) {
+            mCards[i * 2] = mCards[i * 2 + 1] = -mVariations[i % NUM_VARIATIONS];
+        }
+        if ((numCells & 1) != 0) {
+            //  the odd cell stays empty
+            mCards[numCells - 1] = 0;
+        }
+        shuffleArray(mCards, mRandom);
+
+        mNumPairs = numCards;
+        updateCardCounters();
+    }
+
+    /**
+     * Rebuilds the face positions and card counters from mCards
+     */
+    private void updateCardCounters() {
+        Arrays.fill(mFirstFacePosition, -1);
+        int numCardsLeft = 0;
+        mNumFaceDownCards = 0;
+        for (int i = mCards.length - 1; i >= 0; i--) {
+            int face = Math.abs(mCards[i]);
+            if (face != 0) {
+                int next = mFirstFacePosition[face];
+                mNextFacePosition[i] = next;
+                mPrevFacePosition[i] = -1;
+                if (next != -1) {
+                    mPrevFacePosition[next] = i;
+                }
+                mFirstFacePosition[face] = i;
+                numCardsLeft++;
+                if (mCards[i] < 0) {
+                    mNumFaceDownCards++;
+                }
+            }
+        }
+        mNumRemainingPairs = numCardsLeft/2;
+    }
+
+    /**
+     * Serializes the board state (but not the random generator state) into a compact snapshot
+     */
+    public byte[] saveState() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + mCards.length*2);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(SNAPSHOT_VERSION);
+            out.writeShort(mNumCardsW);
+            out.writeShort(mNumCardsH);
+            out.writeByte(mState);
+            out.writeShort(mFlippedCardIdx);
+            out.writeInt(mNumMisses);
+            out.writeShort(mNumPairs);
+            for (int i = 0; i < mCards.length; i++) {
+                out.writeShort(mCards[i]);
+            }
+            out.flush();
+        } catch (IOException e) {
+            //  can not happen with an in-memory stream
+            throw new IllegalStateException(e.toString());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores the board state from a saveState() snapshot
+     */
+    public void restoreState(byte[] snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+        if (in.readByte() != SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported board snapshot version");
+        }
+        int numCardsW = in.readShort();
+        int numCardsH = in.readShort();
+        int state = in.readByte();
+        int flippedCardIdx = in.readShort();
+        int numMisses = in.readInt();
+        int numPairs = in.readShort();
+        int numCells = numCardsW*numCardsH;
+        if (!isValidSize(numCardsW, numCardsH) || flippedCardIdx < -1 || flippedCardIdx >= numCells
+                || state < STATE_NO_CARD_FLIPPED || state > STATE_GAME_OVER) {
+            throw new IOException("Corrupt board snapshot");
+        }
+        int[] cards = new int[numCells];
+        int[] faceCounts = new int[NUM_VARIATIONS + 1];
+        int numCardsLeft = 0;
+        for (int i = 0; i < numCells; i++) {
+            cards[i] = in.readShort();
+            //  only the one flipped card is face up, and the flip() relies on it
+            if (Math.abs(cards[i]) > NUM_VARIATIONS || (cards[i] > 0 && i != flippedCardIdx)) {
+                throw new IOException("Corrupt board snapshot");
+            }
+            if (cards[i] != 0) {
+                faceCounts[Math.abs(cards[i])]++;
+                numCardsLeft++;
+            }
+        }
+        //  the cards left have to make pairs, and the game is over once there are none
+        for (int face = 1; face <= NUM_VARIATIONS; face++) {
+            if ((faceCounts[face] & 1) != 0) {
+                throw new IOException("Corrupt board snapshot");
+            }
+        }
+        boolean isFlippedValid = (state == STATE_ONE_CARD_FLIPPED)
+                ? flippedCardIdx != -1 && cards[flippedCardIdx] > 0
+                : flippedCardIdx == -1;
+        if (!isFlippedValid || (numCardsLeft == 0) != (state == STATE_GAME_OVER)
+                || numPairs < numCardsLeft/2 || numPairs > numCells/2 || numMisses < 0) {
+            throw new IOException("Corrupt board snapshot");
+        }
+
+        mNumCardsW = numCardsW;
+        mNumCardsH = numCardsH;
+        mState = state;
+        mFlippedCardIdx = flippedCardIdx;
+        mPrevFlippedCardIdx = -1;
+        mNumMisses = numMisses;
+        mNumPairs = numPairs;
+        mCards = cards;
+        mNextFacePosition = new int[numCells];
+        mPrevFacePosition = new int[numCells];
+        updateCardCounters();
+
+        //  the faces still on the board come first in the faces in play
+        int numFaces = 0;
+        for (int i = 0; i < numCells; i++) {
+            int face = Math.abs(cards[i]);
+            if (face != 0 && mFirstFacePosition[face] == i) {
+                mVariations[numFaces++] = face;
+            }
+        }
+        for (int i = 1; i <= NUM_VARIATIONS && numFaces < NUM_VARIATIONS; i++) {
+            if (mFirstFacePosition[i] == -1) {
+                mVariations[numFaces++] = i;
+            }
+        }
+    }
+
+    /**
+     * Turns the card face up, and then resolves the pair if it is the second card flipped.
+     * Returns one of the FLIP_* results.
+     */
+    public int flip(int cardIdx) {
+        if (mState == STATE_GAME_OVER || cardIdx < 0 || cardIdx >= mCards.length) {
+            return FLIP_IGNORED;
+        }
+        int cardFace = mCards[cardIdx];
+        if (cardFace == 0 || cardIdx == mFlippedCardIdx) {
+            return FLIP_IGNORED;
+        }
+
+        mCards[cardIdx] = -cardFace;
+        mNumFaceDownCards--;
+        if (mState == STATE_NO_CARD_FLIPPED) {
+            //  no other cards are flipped
+            mFlippedCardIdx = cardIdx;
+            mState = STATE_ONE_CARD_FLIPPED;
+            return FLIP_FIRST;
+        }
+
+        int result;
+        int flippedCardFace = mCards[mFlippedCardIdx];
+        if (Math.abs(cardFace) == Math.abs(flippedCardFace)) {
+            //  found a match - remove the cards
+            int face = Math.abs(cardFace);
+            unlinkFacePosition(face, mFlippedCardIdx);
+            unlinkFacePosition(face, cardIdx);
+            mCards[mFlippedCardIdx] = mCards[cardIdx] = 0;
+            mNumRemainingPairs--;
+            if (mNumRemainingPairs == 0) {
+                mState = STATE_GAME_OVER;
+                result = FLIP_WIN;
+            } else {
+                mState = STATE_NO_CARD_FLIPPED;
+                result = FLIP_MATCH;
+            }
+        } else {
+            //  the second flipped card does not match - turn both cards back
+            mCards[mFlippedCardIdx] = -mCards[mFlippedCardIdx];
+            mCards[cardIdx] = -mCards[cardIdx];
+            mNumFaceDownCards += 2;
+            mNumMisses++;
+            mState = STATE_NO_CARD_FLIPPED;
+            result = FLIP_MISS;
+        }
+        mPrevFlippedCardIdx = mFlippedCardIdx;
+        mFlippedCardIdx = -1;
+        return result;
+    }
+
+    private void unlinkFacePosition(int face, int cardIdx) {
+        int next = mNextFacePosition[cardIdx];
+        int prev = mPrevFacePosition[cardIdx];
+        if (prev != -1) {
+            mNextFacePosition[prev] = next;
+        } else {
+            mFirstFacePosition[face] = next;
+        }
+        if (next != -1) {
+            mPrevFacePosition[next] = prev;
+        }
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public boolean isGameOver() {
+        return mState == STATE_GAME_OVER;
+    }
+
+    public int getNumCardsW() {
+        return mNumCardsW;
+    }
+
+    public int getNumCardsH() {
+        return mNumCardsH;
+    }
+
+    public int getNumCells() {
+        return mCards.length;
+    }
+
+    public int getCard(int cardIdx) {
+        return mCards[cardIdx];
+    }
+
+    /**
+     * Index of the card lying face up, waiting for its pair, or -1
+     */
+    public int getFlippedCardIdx() {
+        return mFlippedCardIdx;
+    }
+
+    /**
+     * Index of the first card of the pair resolved by the last flip()
+     */
+    public int getPrevFlippedCardIdx() {
+        return mPrevFlippedCardIdx;
+    }
+
+    public int getNumMisses() {
+        return mNumMisses;
+    }
+
+    /**
+     * Index of another card with the same face still on the board, or -1 if the card is already matched
+     */
+    public int getPartnerIdx(int cardIdx) {
+        int face = Math.abs(mCards[cardIdx]);
+        if (face == 0) {
+            return -1;
+        }
+        //  the card itself is one of the first two of the chain
+        int i = mFirstFacePosition[face];
+        return (i != cardIdx) ? i : mNextFacePosition[i];
+    }
+
+    /**
+     * Index of one of the cards with the face, or -1 if the face is not on the board anymore
+     */
+    public int getFacePosition(int face) {
+        return mFirstFacePosition[face];
+    }
+
+    public int getNumPairs() {
+        return mNumPairs;
+    }
+
+    public int getNumRemainingPairs() {
+        return mNumRemainingPairs;
+    }
+
+    public int getNumMatchedPairs() {
+        return mNumPairs - mNumRemainingPairs;
+    }
+
+    public int getNumFaceDownCards() {
+        return mNumFaceDownCards;
+    }
+
+    /**
+     * Card faces dealt in the current game, in the order they were picked
+     */
+    public int getFaceInPlay(int i) {
+        return mVariations[i];
+    }
+
+    /**
+     * Number of the distinct faces dealt, at most NUM_VARIATIONS
+     */
+    public int getNumFacesInPlay() {
+        return Math.min(mCards.length / 2, NUM_VARIATIONS);
+    }
+}
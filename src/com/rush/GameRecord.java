@@ -0,0 +1,81 @@
+package com.rush;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compact binary log of a game session, free of any Android dependencies.
+ *
+ * Layout (big endian):
+ *   int     MAGIC ("MGR1")
+ *   byte    VERSION
+ *   events, each:
+ *     byte    event type
+ *     varint  milliseconds since the previous event (see VarInt)
+ *     EVENT_NEW_GAME: long seed, varint numCardsW, varint numCardsH
+ *     EVENT_FLIP:     varint card index
+ *     EVENT_RESTORE:  varint snapshot size, GameBoard.saveState() snapshot
+ * Every game carries the seed it got dealt from, or the board it got restored to,
+ * so the log replays exactly with GameReplay.
+ * Only the flips, which changed the board, get logged.
+ */
+public class GameRecord {
+    public static final int MAGIC = 0x4D475231;
+    public static final int VERSION = 1;
+
+    public static final int EVENT_NEW_GAME = 1;
+    public static final int EVENT_FLIP = 2;
+    public static final int EVENT_RESTORE = 3;
+
+    private final ByteArrayOutputStream mData = new ByteArrayOutputStream(256);
+    private long mLastTime = -1;
+    private int mNumEvents = 0;
+
+    public GameRecord() {
+        writeInt(MAGIC);
+        mData.write(VERSION);
+    }
+
+    public void addNewGame(long time, long seed, int numCardsW, int numCardsH) {
+        addEvent(EVENT_NEW_GAME, time);
+        writeInt((int) (seed >>> 32));
+        writeInt((int) seed);
+        VarInt.write(mData, numCardsW);
+        VarInt.write(mData, numCardsH);
+    }
+
+    public void addFlip(long time, int cardIdx) {
+        addEvent(EVENT_FLIP, time);
+        VarInt.write(mData, cardIdx);
+    }
+
+    /**
+     * Logs the board of a game continued from a saved state, which no seed can deal
+     */
+    public void addRestore(long time, byte[] snapshot) {
+        addEvent(EVENT_RESTORE, time);
+        VarInt.write(mData, snapshot.length);
+        mData.write(snapshot, 0, snapshot.length);
+    }
+
+    public int getNumEvents() {
+        return mNumEvents;
+    }
+
+    public byte[] toByteArray() {
+        return mData.toByteArray();
+    }
+
+    private void addEvent(int type, long time) {
+        mData.write(type);
+        VarInt.write(mData, mLastTime < 0 ? 0 : Math.min(Math.max(time - mLastTime, 0), Integer.MAX_VALUE));
+        mLastTime = time;
+        mNumEvents++;
+    }
+
+    private void writeInt(int value) {
+        mData.write(value >>> 24);
+        mData.write(value >>> 16);
+        mData.write(value >>> 8);
+        mData.write(value);
+    }
+}
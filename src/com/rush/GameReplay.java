@@ -0,0 +1,185 @@
+package com.rush;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Replays a GameRecord log against a GameBoard, free of any Android dependencies.
+ *
+ * The events get parsed up front, then applied one by one with apply(), either at their
+ * recorded times (see getEventTime()) or all at once with applyAll(), with no rendering involved.
+ * The flips logged before the first game (of a game restored before the log started) have
+ * no board to land on, so the replay starts from getFirstGameEvent().
+ */
+public class GameReplay {
+    private final int mNumEvents;
+    private final int[] mTypes;
+    private final long[] mTimes;
+    private final long[] mSeeds;
+    private final int[] mArgs1;
+    private final int[] mArgs2;
+    private final byte[][] mSnapshots;
+    private final int mFirstGameEvent;
+
+    public GameReplay(byte[] record) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(record);
+        if (readInt(in) != GameRecord.MAGIC) {
+            throw new IOException("Not a game record");
+        }
+        if (readByte(in) != GameRecord.VERSION) {
+            throw new IOException("Unsupported game record version");
+        }
+        //  every event takes at least two bytes
+        int maxEvents = in.available()/2;
+        int[] types = new int[maxEvents];
+        long[] times = new long[maxEvents];
+        long[] seeds = new long[maxEvents];
+        int[] args1 = new int[maxEvents];
+        int[] args2 = new int[maxEvents];
+        byte[][] snapshots = new byte[maxEvents][];
+        int firstGameEvent = -1;
+        GameBoard checkBoard = new GameBoard(0);
+        int numEvents = 0;
+        long time = 0;
+        while (in.available() > 0) {
+            int type = readByte(in);
+            time += VarInt.readInt(in);
+            types[numEvents] = type;
+            times[numEvents] = time;
+            switch (type) {
+                case GameRecord.EVENT_NEW_GAME:
+                    seeds[numEvents] = ((long) readInt(in) << 32) | (readInt(in) & 0xFFFFFFFFL);
+                    args1[numEvents] = VarInt.readInt(in);
+                    args2[numEvents] = VarInt.readInt(in);
+                    if (!GameBoard.isValidSize(args1[numEvents], args2[numEvents])) {
+                        throw new IOException("Bad board size in the game record");
+                    }
+                    break;
+                case GameRecord.EVENT_RESTORE: {
+                    int size = VarInt.readInt(in);
+                    if (size > in.available()) {
+                        throw new IOException("Truncated game record");
+                    }
+                    byte[] snapshot = new byte[size];
+                    in.read(snapshot, 0, size);
+                    //  throws on a corrupt snapshot, so that apply() never does
+                    checkBoard.restoreState(snapshot);
+                    snapshots[numEvents] = snapshot;
+                    break;
+                }
+                case GameRecord.EVENT_FLIP:
+                    //  never negative, the upper bound depends on the board the flip lands on, see apply()
+                    args1[numEvents] = VarInt.readInt(in);
+                    break;
+                default:
+                    throw new IOException("Unknown event " + type + " in the game record");
+            }
+            if (firstGameEvent == -1 && type != GameRecord.EVENT_FLIP) {
+                firstGameEvent = numEvents;
+            }
+            numEvents++;
+        }
+        mNumEvents = numEvents;
+        mFirstGameEvent = (firstGameEvent != -1) ? firstGameEvent : numEvents;
+        mSnapshots = snapshots;
+        mTypes = types;
+        mTimes = times;
+        mSeeds = seeds;
+        mArgs1 = args1;
+        mArgs2 = args2;
+    }
+
+    public int getNumEvents() {
+        return mNumEvents;
+    }
+
+    /**
+     * The first new game or restore event, or getNumEvents() if there is none
+     */
+    public int getFirstGameEvent() {
+        return mFirstGameEvent;
+    }
+
+    public int getEventType(int event) {
+        return mTypes[event];
+    }
+
+    /**
+     * Time of the event in milliseconds, relative to the first event
+     */
+    public long getEventTime(int event) {
+        return mTimes[event];
+    }
+
+    public long getSeed(int event) {
+        return mSeeds[event];
+    }
+
+    public int getCardIdx(int event) {
+        return mArgs1[event];
+    }
+
+    public int getNumCardsW(int event) {
+        return mArgs1[event];
+    }
+
+    public int getNumCardsH(int event) {
+        return mArgs2[event];
+    }
+
+    /**
+     * The board snapshot of a restore event
+     */
+    public byte[] getSnapshot(int event) {
+        return mSnapshots[event];
+    }
+
+    /**
+     * Applies the event to the board, returns the flip() result for flips,
+     * GameBoard.FLIP_IGNORED for new games and restores
+     */
+    public int apply(int event, GameBoard board) {
+        switch (mTypes[event]) {
+            case GameRecord.EVENT_NEW_GAME:
+                board.setSeed(mSeeds[event]);
+                board.startGame(mArgs1[event], mArgs2[event]);
+                return GameBoard.FLIP_IGNORED;
+            case GameRecord.EVENT_RESTORE:
+                try {
+                    board.restoreState(mSnapshots[event]);
+                } catch (IOException e) {
+                    //  can not happen, the snapshot got checked when parsed
+                    throw new IllegalStateException(e.toString());
+                }
+                return GameBoard.FLIP_IGNORED;
+            default:
+                return board.flip(mArgs1[event]);
+        }
+    }
+
+    /**
+     * Applies all the events from the first game on as fast as possible, returns the number of flips
+     * which did not have the effect they had when recorded (i.e. got ignored)
+     */
+    public int applyAll(GameBoard board) {
+        int numDiverged = 0;
+        for (int i = mFirstGameEvent; i < mNumEvents; i++) {
+            if (apply(i, board) == GameBoard.FLIP_IGNORED && mTypes[i] == GameRecord.EVENT_FLIP) {
+                numDiverged++;
+            }
+        }
+        return numDiverged;
+    }
+
+    private static int readByte(ByteArrayInputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new IOException("Truncated game record");
+        }
+        return b;
+    }
+
+    private static int readInt(ByteArrayInputStream in) throws IOException {
+        return (readByte(in) << 24) | (readByte(in) << 16) | (readByte(in) << 8) | readByte(in);
+    }
+}
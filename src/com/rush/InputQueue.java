@@ -0,0 +1,93 @@
+package com.rush;
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer of input events.
+ * The UI thread pushes the events, the drawing thread polls them at the start of each frame,
+ * so that the game state is only ever touched by the drawing thread.
+ */
+class InputQueue {
+    public static final int EVENT_TOUCH = 0;
+    public static final int EVENT_RESIZE = 1;
+    //  x and y are the scroll distance on the screen
+    public static final int EVENT_SCROLL = 2;
+    //  x is the zoom direction, 1 to zoom in, -1 to zoom out
+    public static final int EVENT_ZOOM = 3;
+
+    private final int[] mTypes;
+    private final int[] mX;
+    private final int[] mY;
+    private final int mMask;
+
+    //  the counters only grow, the producer owns mTail and the consumer owns mHead
+    private volatile int mHead = 0;
+    private volatile int mTail = 0;
+
+    //  the event last polled by the consumer
+    private int mType;
+    private int mEventX;
+    private int mEventY;
+
+    /**
+     * @param capacity maximum number of pending events, must be a power of two
+     */
+    public InputQueue(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        mTypes = new int[capacity];
+        mX = new int[capacity];
+        mY = new int[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Adds an event to the queue, returns false if the queue is full and the event got dropped.
+     * Must only be called from the producer thread.
+     */
+    public boolean push(int type, int x, int y) {
+        int tail = mTail;
+        if (tail - mHead > mMask) {
+            return false;
+        }
+        int i = tail & mMask;
+        mTypes[i] = type;
+        mX[i] = x;
+        mY[i] = y;
+        //  the volatile write publishes the event to the consumer
+        mTail = tail + 1;
+        return true;
+    }
+
+    /**
+     * Takes the next event from the queue, returns false if the queue is empty.
+     * Must only be called from the consumer thread.
+     */
+    public boolean poll() {
+        int head = mHead;
+        if (head == mTail) {
+            return false;
+        }
+        int i = head & mMask;
+        mType = mTypes[i];
+        mEventX = mX[i];
+        mEventY = mY[i];
+        mHead = head + 1;
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return mHead == mTail;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public int getX() {
+        return mEventX;
+    }
+
+    public int getY() {
+        return mEventY;
+    }
+}
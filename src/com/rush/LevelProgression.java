@@ -0,0 +1,97 @@
+package com.rush;
+
+/**
+ * The board sizes the levels go through, free of any Android dependencies.
+ *
+ * The progression is given as a comma separated list of the sizes, e.g. "3x2,4x3,6x4",
+ * which may end with a step, e.g. "+2x+1", growing the board from the last size on.
+ * Without a step the last size repeats. The boards not on the list (e.g. restored from an older
+ * progression) grow by the step as well, and the growth stops at the board size limit.
+ */
+public final class LevelProgression {
+    private final int[] mSizesW;
+    private final int[] mSizesH;
+    private final int mStepW;
+    private final int mStepH;
+
+    public LevelProgression(int[] sizesW, int[] sizesH, int stepW, int stepH) {
+        if (sizesW.length == 0 || sizesW.length != sizesH.length) {
+            throw new IllegalArgumentException("The progression needs at least one board size");
+        }
+        for (int i = 0; i < sizesW.length; i++) {
+            if (!GameBoard.isValidSize(sizesW[i], sizesH[i])) {
+                throw new IllegalArgumentException("Bad board size " + sizesW[i] + "x" + sizesH[i]);
+            }
+        }
+        if (stepW < 0 || stepH < 0) {
+            throw new IllegalArgumentException("The boards can only grow");
+        }
+        mSizesW = sizesW;
+        mSizesH = sizesH;
+        mStepW = stepW;
+        mStepH = stepH;
+    }
+
+    /**
+     * Parses the progression in the "3x2,4x3,+1x+1" form
+     */
+    public static LevelProgression parse(String spec) {
+        String[] items = spec.split(",");
+        int numSizes = items.length;
+        int stepW = 0;
+        int stepH = 0;
+        if (items[numSizes - 1].trim().startsWith("+")) {
+            int[] step = parseSize(items[--numSizes], "+");
+            stepW = step[0];
+            stepH = step[1];
+        }
+        int[] sizesW = new int[numSizes];
+        int[] sizesH = new int[numSizes];
+        for (int i = 0; i < numSizes; i++) {
+            int[] size = parseSize(items[i], "");
+            sizesW[i] = size[0];
+            sizesH[i] = size[1];
+        }
+        return new LevelProgression(sizesW, sizesH, stepW, stepH);
+    }
+
+    private static int[] parseSize(String item, String prefix) {
+        String[] dims = item.trim().split("x");
+        if (dims.length != 2 || !dims[0].startsWith(prefix) || !dims[1].startsWith(prefix)) {
+            throw new IllegalArgumentException("Bad level \"" + item + "\"");
+        }
+        try {
+            return new int[] { Integer.parseInt(dims[0].substring(prefix.length())),
+                    Integer.parseInt(dims[1].substring(prefix.length())) };
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad level \"" + item + "\"");
+        }
+    }
+
+    public int getFirstW() {
+        return mSizesW[0];
+    }
+
+    public int getFirstH() {
+        return mSizesH[0];
+    }
+
+    /**
+     * Gets the size of the level after the board size, as {numCardsW, numCardsH}
+     */
+    public void getNextSize(int numCardsW, int numCardsH, int[] size) {
+        for (int i = 0; i < mSizesW.length - 1; i++) {
+            if (mSizesW[i] == numCardsW && mSizesH[i] == numCardsH) {
+                size[0] = mSizesW[i + 1];
+                size[1] = mSizesH[i + 1];
+                return;
+            }
+        }
+        if (GameBoard.isValidSize(numCardsW + mStepW, numCardsH + mStepH)) {
+            numCardsW += mStepW;
+            numCardsH += mStepH;
+        }
+        size[0] = numCardsW;
+        size[1] = numCardsH;
+    }
+}
@@ -0,0 +1,83 @@
+package com.rush;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * The player side of a networked match, free of any Android dependencies.
+ *
+ * Joins a match on the server and then passes the messages both ways; the reading blocks,
+ * so it is meant for a thread of its own, while the flips get sent from any other thread.
+ */
+public class MatchClient {
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private final Socket mSocket;
+    private final InputStream mIn;
+    private final OutputStream mOut;
+
+    /**
+     * Connects to the server given as "host:port" (or just "host" for the default port)
+     */
+    public MatchClient(String address) throws IOException {
+        String host = address;
+        int port = MatchProtocol.DEFAULT_PORT;
+        int colonPos = address.lastIndexOf(':');
+        if (colonPos != -1) {
+            host = address.substring(0, colonPos);
+            try {
+                port = Integer.parseInt(address.substring(colonPos + 1));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad server address " + address);
+            }
+        }
+        mSocket = new Socket();
+        try {
+            mSocket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            //  the flips are tiny and every one of them is waited for
+            mSocket.setTcpNoDelay(true);
+            mIn = new BufferedInputStream(mSocket.getInputStream());
+            mOut = mSocket.getOutputStream();
+        } catch (IOException e) {
+            mSocket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Asks for a match of the number of players, the server answers with the deal once it is full
+     */
+    public void join(int numPlayers) throws IOException {
+        synchronized (mOut) {
+            MatchProtocol.writeJoin(mOut, numPlayers);
+        }
+    }
+
+    public void sendFlip(int player, int cardIdx) throws IOException {
+        synchronized (mOut) {
+            MatchProtocol.writeFlip(mOut, player, cardIdx);
+        }
+    }
+
+    /**
+     * Waits for the next message from the server, returns false once the server is gone
+     */
+    public boolean read(MatchProtocol.Message msg) throws IOException {
+        return MatchProtocol.read(mIn, msg);
+    }
+
+    /**
+     * Leaves the match, a blocked read() returns with an exception
+     */
+    public void close() {
+        try {
+            mSocket.close();
+        } catch (IOException e) {
+            //  nothing to do about it
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.rush;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The messages of a networked match, free of any Android dependencies.
+ *
+ * The board never goes over the wire: every side deals it from the seed, and then only the flips
+ * get sent, which the server checks against its own board before passing them on to all the
+ * players (the flipping one included), so that every side applies the same flips in the same order.
+ *
+ * Message layout: byte message type, then (see VarInt for the varints)
+ *   MSG_JOIN:   varint VERSION, varint numPlayers (the match size the client wants)
+ *   MSG_DEAL:   long seed, varint numCardsW, varint numCardsH, varint numPlayers, varint player (the receiver)
+ *   MSG_FLIP:   varint player, varint card index
+ *   MSG_REJECT: varint card index (the flip of the receiver, which did not apply)
+ *   MSG_LEFT:   varint player (the match is over)
+ * A flip takes three bytes on the wire for the boards up to 128 cards, four up to the size limit.
+ */
+public final class MatchProtocol {
+    public static final int VERSION = 1;
+    public static final int DEFAULT_PORT = 7777;
+
+    public static final int MSG_JOIN = 1;
+    public static final int MSG_DEAL = 2;
+    public static final int MSG_FLIP = 3;
+    public static final int MSG_REJECT = 4;
+    public static final int MSG_LEFT = 5;
+
+    //  the longest message: the deal
+    private static final int MAX_MESSAGE_SIZE = 1 + 8 + 4*VarInt.MAX_INT_SIZE;
+
+    private MatchProtocol() {
+    }
+
+    /**
+     * A received message, only the fields of its type are set
+     */
+    public static class Message {
+        public int mType;
+        public int mVersion;
+        public long mSeed;
+        public int mNumCardsW;
+        public int mNumCardsH;
+        public int mNumPlayers;
+        public int mPlayer;
+        public int mCardIdx;
+    }
+
+    public static void writeJoin(OutputStream out, int numPlayers) throws IOException {
+        byte[] buf = new byte[MAX_MESSAGE_SIZE];
+        int pos = 0;
+        buf[pos++] = MSG_JOIN;
+        pos = VarInt.put(buf, pos, VERSION);
+        pos = VarInt.put(buf, pos, numPlayers);
+        out.write(buf, 0, pos);
+    }
+
+    public static void writeDeal(OutputStream out, long seed, int numCardsW, int numCardsH, int numPlayers,
+            int player) throws IOException {
+        byte[] buf = new byte[MAX_MESSAGE_SIZE];
+        int pos = 0;
+        buf[pos++] = MSG_DEAL;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buf[pos++] = (byte) (seed >>> shift);
+        }
+        pos = VarInt.put(buf, pos, numCardsW);
+        pos = VarInt.put(buf, pos, numCardsH);
+        pos = VarInt.put(buf, pos, numPlayers);
+        pos = VarInt.put(buf, pos, player);
+        out.write(buf, 0, pos);
+    }
+
+    public static void writeFlip(OutputStream out, int player, int cardIdx) throws IOException {
+        byte[] buf = new byte[MAX_MESSAGE_SIZE];
+        int pos = 0;
+        buf[pos++] = MSG_FLIP;
+        pos = VarInt.put(buf, pos, player);
+        pos = VarInt.put(buf, pos, cardIdx);
+        out.write(buf, 0, pos);
+    }
+
+    public static void writeReject(OutputStream out, int cardIdx) throws IOException {
+        byte[] buf = new byte[MAX_MESSAGE_SIZE];
+        int pos = 0;
+        buf[pos++] = MSG_REJECT;
+        pos = VarInt.put(buf, pos, cardIdx);
+        out.write(buf, 0, pos);
+    }
+
+    public static void writeLeft(OutputStream out, int player) throws IOException {
+        byte[] buf = new byte[MAX_MESSAGE_SIZE];
+        int pos = 0;
+        buf[pos++] = MSG_LEFT;
+        pos = VarInt.put(buf, pos, player);
+        out.write(buf, 0, pos);
+    }
+
+    /**
+     * Reads the next message into msg, blocking until it arrives.
+     * Returns false if the stream ended cleanly between the messages.
+     */
+    public static boolean read(InputStream in, Message msg) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            return false;
+        }
+        msg.mType = type;
+        switch (type) {
+            case MSG_JOIN:
+                msg.mVersion = VarInt.readInt(in);
+                msg.mNumPlayers = VarInt.readInt(in);
+                break;
+            case MSG_DEAL: {
+                long seed = 0;
+                for (int i = 0; i < 8; i++) {
+                    seed = (seed << 8) | readByte(in);
+                }
+                msg.mSeed = seed;
+                msg.mNumCardsW = VarInt.readInt(in);
+                msg.mNumCardsH = VarInt.readInt(in);
+                msg.mNumPlayers = VarInt.readInt(in);
+                msg.mPlayer = VarInt.readInt(in);
+                break;
+            }
+            case MSG_FLIP:
+                msg.mPlayer = VarInt.readInt(in);
+                msg.mCardIdx = VarInt.readInt(in);
+                break;
+            case MSG_REJECT:
+                msg.mCardIdx = VarInt.readInt(in);
+                break;
+            case MSG_LEFT:
+                msg.mPlayer = VarInt.readInt(in);
+                break;
+            default:
+                throw new IOException("Unknown match message " + type);
+        }
+        return true;
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Truncated match message");
+        }
+        return b;
+    }
+}
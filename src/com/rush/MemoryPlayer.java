@@ -0,0 +1,240 @@
+package com.rush;
+
+import java.util.Random;
+
+/**
+ * A computer player with a limited memory, free of any Android dependencies.
+ *
+ * The player only uses what a human sees: the faces of the cards it flipped. It remembers
+ * up to mMemorySize card positions, forgetting the least recently seen ones first
+ * (PERFECT_RECALL never forgets). On the first flip it goes for a pair it knows of, or else
+ * for a card it does not remember; on the second flip it goes for the partner of the first card
+ * if it remembers it, or else for another card it does not remember.
+ * Nothing gets allocated while playing, once the player has seen a board of the size.
+ */
+public class MemoryPlayer {
+    public static final int PERFECT_RECALL = Integer.MAX_VALUE;
+
+    private final int mMemorySize;
+    private final Random mRandom;
+
+    //  remembered face of every cell (0 if not remembered), and when it was seen last
+    private int[] mKnownFaces = new int[0];
+    private long[] mSeenTime = new long[0];
+    private long mTime = 0;
+    //  remembered cells of every face, two slots per face (-1 if not remembered),
+    //  the faces dealt more than once get any two of their cards in the slots
+    private final int[] mFaceCells = new int[(GameBoard.NUM_VARIATIONS + 1)*2];
+    //  faces with both cells remembered, may hold stale entries which get skipped
+    private final int[] mKnownPairs = new int[GameBoard.NUM_VARIATIONS];
+    private final boolean[] mIsPairKnown = new boolean[GameBoard.NUM_VARIATIONS + 1];
+    private int mNumKnownPairs = 0;
+
+    //  the cells on the board, split into the remembered and the unknown ones
+    private final CellSet mRemembered = new CellSet();
+    private final CellSet mUnknown = new CellSet();
+
+    public MemoryPlayer(int memorySize, Random random) {
+        mMemorySize = memorySize;
+        mRandom = random;
+    }
+
+    public int getMemorySize() {
+        return mMemorySize;
+    }
+
+    /**
+     * Forgets everything, to start playing the freshly dealt board
+     */
+    public void reset(GameBoard board) {
+        int numCells = board.getNumCells();
+        if (mKnownFaces.length != numCells) {
+            mKnownFaces = new int[numCells];
+            mSeenTime = new long[numCells];
+            mRemembered.setCapacity(numCells);
+            mUnknown.setCapacity(numCells);
+        }
+        java.util.Arrays.fill(mKnownFaces, 0);
+        java.util.Arrays.fill(mFaceCells, -1);
+        java.util.Arrays.fill(mIsPairKnown, false);
+        mNumKnownPairs = 0;
+        mRemembered.clear();
+        mUnknown.clear();
+        for (int i = 0; i < numCells; i++) {
+            if (board.getCard(i) != 0) {
+                mUnknown.add(i);
+            }
+        }
+    }
+
+    /**
+     * Plays the board to the end, returns the number of misses
+     */
+    public int playGame(GameBoard board) {
+        reset(board);
+        while (!board.isGameOver()) {
+            int cardIdx = chooseCard(board);
+            int face = Math.abs(board.getCard(cardIdx));
+            int flippedCardIdx = board.getFlippedCardIdx();
+            int result = board.flip(cardIdx);
+            onFlipped(cardIdx, face, flippedCardIdx, result);
+        }
+        return board.getNumMisses();
+    }
+
+    /**
+     * Picks the card to flip next
+     */
+    public int chooseCard(GameBoard board) {
+        int flippedCardIdx = board.getFlippedCardIdx();
+        if (flippedCardIdx == -1) {
+            while (mNumKnownPairs > 0) {
+                int face = mKnownPairs[mNumKnownPairs - 1];
+                if (mFaceCells[face*2] != -1 && mFaceCells[face*2 + 1] != -1) {
+                    return mFaceCells[face*2];
+                }
+                //  the pair got matched or forgotten in the meantime
+                mIsPairKnown[face] = false;
+                mNumKnownPairs--;
+            }
+            return pickUnknown(-1);
+        }
+        //  the face up card is in plain sight
+        int face = Math.abs(board.getCard(flippedCardIdx));
+        int slot = face*2;
+        int partnerIdx = (mFaceCells[slot] == flippedCardIdx) ? mFaceCells[slot + 1] : mFaceCells[slot];
+        if (partnerIdx != -1) {
+            return partnerIdx;
+        }
+        return pickUnknown(flippedCardIdx);
+    }
+
+    /**
+     * Learns the outcome of flipping the card with the face, flippedCardIdx is the card which
+     * was face up before the flip (or -1) and result is what GameBoard.flip() returned
+     */
+    public void onFlipped(int cardIdx, int face, int flippedCardIdx, int result) {
+        if (result == GameBoard.FLIP_MATCH || result == GameBoard.FLIP_WIN) {
+            remove(cardIdx);
+            remove(flippedCardIdx);
+        } else if (result != GameBoard.FLIP_IGNORED) {
+            remember(cardIdx, face);
+        }
+    }
+
+    private int pickUnknown(int excludedIdx) {
+        int numUnknown = mUnknown.size();
+        if (numUnknown == 0 || (numUnknown == 1 && mUnknown.get(0) == excludedIdx)) {
+            //  can only happen when there is nothing left to find, pick any other card
+            int cardIdx;
+            do {
+                cardIdx = mRemembered.get(mRandom.nextInt(mRemembered.size()));
+            } while (cardIdx == excludedIdx);
+            return cardIdx;
+        }
+        int cardIdx;
+        do {
+            cardIdx = mUnknown.get(mRandom.nextInt(numUnknown));
+        } while (cardIdx == excludedIdx);
+        return cardIdx;
+    }
+
+    private void remember(int cardIdx, int face) {
+        mSeenTime[cardIdx] = ++mTime;
+        if (mKnownFaces[cardIdx] != 0 || mMemorySize == 0) {
+            return;
+        }
+        mUnknown.remove(cardIdx);
+        mRemembered.add(cardIdx);
+        mKnownFaces[cardIdx] = face;
+        int slot = face*2;
+        if (mFaceCells[slot] == -1) {
+            mFaceCells[slot] = cardIdx;
+        } else if (mFaceCells[slot + 1] == -1) {
+            mFaceCells[slot + 1] = cardIdx;
+            if (!mIsPairKnown[face]) {
+                mIsPairKnown[face] = true;
+                mKnownPairs[mNumKnownPairs++] = face;
+            }
+        }
+
+        if (mRemembered.size() > mMemorySize) {
+            //  forget the card seen the longest time ago
+            int oldestIdx = cardIdx;
+            for (int i = mRemembered.size() - 1; i >= 0; i--) {
+                int idx = mRemembered.get(i);
+                if (mSeenTime[idx] < mSeenTime[oldestIdx]) {
+                    oldestIdx = idx;
+                }
+            }
+            forget(oldestIdx);
+            mUnknown.add(oldestIdx);
+        }
+    }
+
+    private void forget(int cardIdx) {
+        int face = mKnownFaces[cardIdx];
+        if (face == 0) {
+            return;
+        }
+        mKnownFaces[cardIdx] = 0;
+        mRemembered.remove(cardIdx);
+        int slot = face*2;
+        if (mFaceCells[slot] == cardIdx) {
+            mFaceCells[slot] = mFaceCells[slot + 1];
+            mFaceCells[slot + 1] = -1;
+        } else if (mFaceCells[slot + 1] == cardIdx) {
+            mFaceCells[slot + 1] = -1;
+        }
+    }
+
+    private void remove(int cardIdx) {
+        forget(cardIdx);
+        mUnknown.remove(cardIdx);
+    }
+
+    /**
+     * Set of card indices with constant time add, remove and random access
+     */
+    static class CellSet {
+        private int[] mCells = new int[0];
+        private int[] mPositions = new int[0];
+        private int mSize = 0;
+
+        void setCapacity(int numCells) {
+            mCells = new int[numCells];
+            mPositions = new int[numCells];
+            mSize = 0;
+        }
+
+        void clear() {
+            java.util.Arrays.fill(mPositions, -1);
+            mSize = 0;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        int get(int i) {
+            return mCells[i];
+        }
+
+        void add(int cell) {
+            if (mPositions[cell] == -1) {
+                mPositions[cell] = mSize;
+                mCells[mSize++] = cell;
+            }
+        }
+
+        void remove(int cell) {
+            int pos = mPositions[cell];
+            if (pos != -1) {
+                int last = mCells[--mSize];
+                mCells[pos] = last;
+                mPositions[last] = pos;
+                mPositions[cell] = -1;
+            }
+        }
+    }
+}
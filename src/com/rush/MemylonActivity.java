@@ -2,568 +2,2901 @@ package com.rush;
 
 import android.app.Activity;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
-import android.content.res.Resources;
+import android.content.res.AssetFileDescriptor;
 import android.graphics.*;
 import android.graphics.Paint.Align;
+import android.opengl.GLSurfaceView;
+import android.opengl.GLUtils;
 import android.os.Bundle;
+import android.os.Debug;
+import android.os.Environment;
 import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.*;
 import android.widget.FrameLayout;
+import android.widget.ZoomControls;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
 
 public class MemylonActivity extends Activity {
-    DrawThread mDrawThread;
-    MainView mView;
+    static final String TAG = "Memylon";
+
+    volatile DrawThread mDrawThread;
+    //  one of the two is set, as per mIsGLRenderer
+    volatile MainView mView;
+    volatile GLMainView mGLView;
+    boolean mIsGLRenderer;
 
-    Bitmap mBgBitmap;
+    volatile Bitmap mBgBitmap;
 
     SpriteAtlas mCardsFg;
     SpriteAtlas mCardsBg;
+    SpriteCache mSpriteCache;
+
+    //  background thread for the resource decoding
+    ExecutorService mLoader;
+    volatile boolean mIsResourcesChanged = false;
+
+    //  resource loading stages, any of them may complete first
+    static final int STAGE_CARD_INFO = 1;
+    static final int STAGE_BACKGROUND = 2;
+    static final int STAGE_CARD_BACKS = 4;
+    static final int STAGE_CARD_FACES = 8;
+    static final int ALL_STAGES = STAGE_CARD_INFO | STAGE_BACKGROUND | STAGE_CARD_BACKS | STAGE_CARD_FACES;
+    volatile int mLoadedStages = 0;
+    long mCreateTime;
+    Paint mProgressPaint = new Paint();
+    boolean[] mFacesInPlay;
+    static final boolean[] ALL_CARD_FRAMES = { true, true };
+    CaptionCache mCaptionCache = new CaptionCache(CAPTION_CACHE_MAX_ENTRIES, CAPTION_CACHE_MAX_BYTES);
 
     Rect mSrcRect = new Rect();
     Rect mDstRect = new Rect();
-    Rect mBoardRect = new Rect(0, 0, 1, 1);
-
-    ArrayList<String> mCardNames = new ArrayList<String>();
+    //  the card cells on the screen, rebuilt when the board, the surface size or the viewport changes,
+    //  read by the UI thread to tell the taps from the drags
+    volatile BoardLayout mLayout = new BoardLayout(1, 1, 1, 1, CARD_W, CARD_H);
+    int mMinCellW = 1;
+
+    //  the touch in progress, tracked by the UI thread
+    int mTouchSlop;
+    int mTouchDownX;
+    int mTouchDownY;
+    int mLastDragX;
+    int mLastDragY;
+    boolean mIsTouchQueued;
+    boolean mIsDragging;
+
+    //  damage tracking: the screen area which has to be repainted on the next frame
+    Rect mDirtyRect = new Rect();
+    Rect mTextRect = new Rect();
+    Rect mCellRect = new Rect();
+    boolean mIsFullRedraw = true;
+
+    int mSurfaceW = 1;
+    int mSurfaceH = 1;
+
+    //  number of animations still playing after the last update
+    int mNumActiveAnims = 0;
+
+    volatile CardInfoTable mCardInfo;
+
+    GameBoard mBoard = new GameBoard();
+    AnimationTracks mAnims;
+
+    InputQueue mInputQueue = new InputQueue(INPUT_QUEUE_SIZE);
+
+    //  the board state as of the last move, published by the drawing thread for onSaveInstanceState()
+    volatile byte[] mBoardSnapshot;
+
+    //  frame timings, recorded by the drawing thread
+    FrameTrace mTrace = new FrameTrace(TRACE_NUM_FRAMES);
+    int mLastNumGcs = 0;
+    StatsOverlay mStatsOverlay = new StatsOverlay();
+    volatile boolean mIsStatsShown = false;
+    //  redraw on every frame slot instead of only when something changes, to measure the frame rate
+    volatile boolean mIsContinuous = false;
+    //  count the objects allocated by the frames, which should be none in the steady state
+    volatile boolean mIsCountingAllocs = false;
+    volatile boolean mIsTraceSaveRequested = false;
+
+    //  the session log, every game gets dealt from its own seed, so that it can be replayed
+    Random mSeedGenerator = new Random();
+    GameRecord mRecord = new GameRecord();
+    volatile boolean mIsRecordSaveRequested = false;
+    volatile GameReplay mPendingReplay;
+    GameReplay mReplay;
+    int mReplayEvent;
+    long mReplayStartTime;
+
+    //  the board sizes of the levels, and the next level dealt ahead on the loader thread
+    LevelProgression mLevels;
+    volatile PreparedLevel mNextLevel;
+    int mLevelSerial = 0;
+    int[] mNextSize = new int[2];
+
+    //  the players taking turns on the board, either all on this device (hot seat),
+    //  or in a networked match, where the server deals the boards and passes the flips on
+    PlayerTurns mTurns = new PlayerTurns();
+    volatile int mNumLocalPlayers = 1;
+    volatile MatchClient mMatchClient;
+    //  set from the toggle on the UI thread until the match thread is over, connecting included
+    volatile boolean mIsMatchThreadRunning = false;
+    volatile boolean mIsMatchLeaveRequested = false;
+    //  the messages from the server, applied by the drawing thread
+    final ConcurrentLinkedQueue<MatchProtocol.Message> mMatchMessages = new ConcurrentLinkedQueue<MatchProtocol.Message>();
+    //  this device's player in the networked match, or -1 when playing locally
+    int mLocalPlayer = -1;
+    int mNumMatchPlayers;
+    boolean mIsFlipSent = false;
+
+    //  the high scores, written to the disk on the loader thread
+    ScoreStore mScores;
+    long mGameStartTime;
+    final Runnable mFlushScoresTask = new Runnable() {
+        public void run() {
+            try {
+                mScores.flush();
+            } catch (java.io.IOException e) {
+                Log.e(TAG, "Failed to save the scores", e);
+            }
+        }
+    };
 
-    int[] mCards;
-    Animation[] mCardAnims;
-    Animation mTopAnim;
+    private static final int CARD_W = 64;
+    private static final int CARD_H = 60;
+    private static final int CARDS_NUM_VARIATIONS = GameBoard.NUM_VARIATIONS;
+    private static final int SPRITE_CACHE_MAX_BYTES = 8*1024*1024;
+
+    private static final int CAPTION_CACHE_MAX_ENTRIES = 8;
+    private static final int CAPTION_CACHE_MAX_BYTES = 4*1024*1024;
+    private static final int CAPTION_MAX_BITMAP_W = 1024;
+
+    private static final int TEXT_COLOR = 0xFF2222AA;
+    private static final int PLACEHOLDER_BG_COLOR = 0xFF101020;
+    private static final int PROGRESS_BAR_H = 4;
+    private static final int INPUT_QUEUE_SIZE = 64;
+    private static final String KEY_BOARD = "board";
+
+    private static final int TRACE_NUM_FRAMES = 256;
+    private static final int STATS_REFRESH_FRAMES = 30;
+    private static final String TRACE_FILE_NAME = "memylon-trace.json";
+    private static final int MENU_STATS = 1;
+    private static final int MENU_SAVE_TRACE = 2;
+    private static final String RECORD_FILE_NAME = "memylon-record.bin";
+    private static final int MENU_SAVE_RECORD = 3;
+    private static final int MENU_REPLAY = 4;
+    private static final String DEFAULT_LEVELS = "3x2,+1x+1";
+    private static final String SCORES_FILE_NAME = "scores.bin";
+    private static final int SCORES_MAX_TOP = 10;
+    private static final int SCORES_COMPACT_SIZE = 64*1024;
+    private static final int MENU_PLAYERS = 5;
+    private static final int MENU_NETWORK = 6;
+    private static final int MAX_LOCAL_PLAYERS = 2;
+    private static final int NETWORK_NUM_PLAYERS = 2;
+    private static final int MENU_CONTINUOUS = 7;
+    private static final int MENU_COUNT_ALLOCS = 8;
+    private static final int TARGET_FPS = 60;
+    private static final int MENU_GL_RENDERER = 9;
+    private static final String PREF_GL_RENDERER = "gl_renderer";
+
+    //  the smallest card width on the screen, boards not fitting at that size get scrolled
+    private static final float MIN_CELL_W_DIP = 40.0f;
+    private static final float MAX_ZOOM = 4.0f;
+    private static final float ZOOM_STEP = 1.5f;
+
+    //  draw through OpenGL ES instead of the software canvas, unless switched from the menu
+    private static final boolean DEFAULT_GL_RENDERER = false;
+    //  the sprites of both card atlases share one texture, in slots of the full sprite size
+    private static final int GL_SPRITE_TEXTURE_SIZE = 1024;
+    private static final int GL_SPRITE_SLOTS_IN_ROW = GL_SPRITE_TEXTURE_SIZE/CARD_W;
+    private static final int GL_CARD_BACKS_FIRST_SLOT = CARDS_NUM_VARIATIONS;
+
+    //  animation step types
+    private static final int ANIM_IDLE = 0;
+    private static final int ANIM_FLIP = 1;
+    private static final int ANIM_DISSOLVE = 2;
+    private static final int ANIM_TEXT = 3;
+    private static final int MAX_ANIM_STEPS = 5;
 
-    int mFlippedCardIdx = -1;
-    boolean mIsGameEnded = false;
-    int mNumMisses = 0;
+    /**
+     * The resources and the game passed over to the next activity instance on a configuration change
+     */
+    static class RetainedState {
+        Bitmap mBgBitmap;
+        Bitmap[] mCardsFgCells;
+        int mCardsFgSampleSize;
+        Bitmap[] mCardsBgCells;
+        int mCardsBgSampleSize;
+        CardInfoTable mCardInfo;
+        byte[] mBoardSnapshot;
+        GameRecord mRecord;
+        ScoreStore mScores;
+    }
 
-    int mNumCardsH;
-    int mNumCardsW;
+    /**
+     * The sprites requested from an atlas, and the on-screen size they get decoded for
+     */
+    static class SpriteRequest {
+        final boolean[] mIsCellNeeded;
+        final int mW;
+        final int mH;
+
+        SpriteRequest(boolean[] isCellNeeded, int w, int h) {
+            mIsCellNeeded = isCellNeeded;
+            mW = w;
+            mH = h;
+        }
+    }
 
-    private static final int CARD_W = 64;
-    private static final int CARD_H = 60;
-    private static final int CARDS_NUM_VARIATIONS = 12*12;
+    /**
+     * The next level, dealt in the background while the current one is played
+     */
+    static class PreparedLevel {
+        //  the level follows the board of the same serial
+        int mSerial;
+        long mSeed;
+        GameBoard mBoard;
+        AnimationTracks mAnims;
+        boolean[] mFacesInPlay;
+        byte[] mSnapshot;
+        //  the faces of both the current and the next level, kept loaded until the swap
+        boolean[] mWarmFaces;
+    }
 
+    /**
+     * A grid of equally sized sprites in a bitmap resource.
+     * The sprites are decoded lazily on the loader thread, only the requested ones,
+     * and downsampled as much as the on-screen size allows.
+     */
     class SpriteAtlas {
         public int mSpriteW;
         public int mSpriteH;
         public int mSpritesInRow;
+        public int mNumRows;
+        public int mNumSprites;
+
+        //  index of the first sprite of the atlas in the sprite cache
+        public int mCacheSlot;
 
-        public Bitmap mBitmap;
+        private final int mBitmapID;
+        private final Bitmap.Config mConfig;
 
-        public SpriteAtlas(int bitmapID, int spritesInRow, int spriteW, int spriteH) {
-            mBitmap = BitmapFactory.decodeResource(getResources(), bitmapID);
+        //  the decoded sprites, replaced as a whole when new sprites get loaded
+        private volatile Bitmap[] mCells;
+        private volatile int mSampleSize = 0;
+
+        //  the last request, published as a whole, as the drawing and the loader thread both request
+        private volatile SpriteRequest mRequest;
+
+        private final Runnable mLoadTask = new Runnable() {
+            public void run() {
+                load();
+            }
+        };
+
+        public SpriteAtlas(int bitmapID, int spritesInRow, int numRows, int spriteW, int spriteH,
+                Bitmap.Config config) {
+            mBitmapID = bitmapID;
+            mConfig = config;
             mSpriteW = spriteW;
             mSpriteH = spriteH;
             mSpritesInRow = spritesInRow;
+            mNumRows = numRows;
+            mNumSprites = spritesInRow*numRows;
         }
-    }
-
-    @Override
-    public void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
 
-        //  game window setup
-        requestWindowFeature(Window.FEATURE_NO_TITLE);
-        setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
-        getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN,
-                WindowManager.LayoutParams.FLAG_FULLSCREEN);
+        public Bitmap[] getCells() {
+            return mCells;
+        }
 
-        setContentView(R.layout.main);
-        FrameLayout layout = (FrameLayout)findViewById(R.id.top_layout);
-        mView = new MainView(this, null);
-        layout.addView(mView, 0);
+        public int getSampleSize() {
+            return mSampleSize;
+        }
 
-        //  load resources
-        Resources res = getResources();
-        mBgBitmap = BitmapFactory.decodeResource(res, R.drawable.background);
+        /**
+         * Adopts the sprites decoded by another instance of the atlas
+         */
+        public void setCells(Bitmap[] cells, int sampleSize) {
+            mSampleSize = sampleSize;
+            mCells = cells;
+        }
 
-        mCardsFg = new SpriteAtlas(R.drawable.cards_fg, 12, 64, 60);
-        mCardsBg = new SpriteAtlas(R.drawable.cards_bg, 2, 64, 60);
+        /**
+         * Returns the decoded sprite, or null if it is not loaded (yet)
+         */
+        public Bitmap getCell(int spriteID) {
+            Bitmap[] cells = mCells;
+            return (cells != null) ? cells[spriteID] : null;
+        }
 
-        //   load cards info
-        try {
-            InputStream in = getAssets().open("languages.txt");
-            BufferedReader bin = new BufferedReader(new InputStreamReader(in));
-            while (true) {
-                String line = bin.readLine();
-                if (line == null) break;
-                String[] parts = line.split("\\|");
-                if (parts.length == 2) {
-                    mCardNames.add(parts[1]);
-                }
+        /**
+         * Requests the sprites to be decoded, at least at the given size.
+         * The sprites, which are not requested anymore, get dropped on the next load.
+         * Can be called from any thread.
+         */
+        public void request(boolean[] isCellNeeded, int w, int h) {
+            if (w <= 0 || h <= 0) {
+                return;
             }
-            assert(mCardNames.size() == CARDS_NUM_VARIATIONS);
-        } catch (java.io.IOException e) {
-            System.out.println("Failed to load the languages description");
+            mRequest = new SpriteRequest(isCellNeeded, w, h);
+            mLoader.execute(mLoadTask);
         }
 
-        mDrawThread = new DrawThread(mView.getHolder());
-
-        startGame(3, 2);
-    }
-
-    void startDrawingThread() {
-        mDrawThread.setRunning(true);
-        mDrawThread.start();
-    }
+        /**
+         * Decodes the requested sprites, runs on the loader thread
+         */
+        private void load() {
+            SpriteRequest request = mRequest;
+            boolean[] isCellNeeded = request.mIsCellNeeded;
+            int w = request.mW;
+            int h = request.mH;
+
+            //  the largest power of two downsampling, which keeps the sprites at least at the on-screen size
+            int sampleSize = 1;
+            while (mSpriteW/(sampleSize*2) >= w && mSpriteH/(sampleSize*2) >= h) {
+                sampleSize *= 2;
+            }
+            Bitmap[] oldCells = mCells;
+            boolean isSameSize = (oldCells != null && sampleSize == mSampleSize);
+            boolean isLoaded = isSameSize;
+            for (int i = 0; i < mNumSprites && isLoaded; i++) {
+                isLoaded = !isCellNeeded[i] || oldCells[i] != null;
+            }
+            if (isLoaded) {
+                if (oldCells != null) {
+                    //  only drop the sprites which are not needed anymore
+                    Bitmap[] cells = new Bitmap[mNumSprites];
+                    for (int i = 0; i < mNumSprites; i++) {
+                        cells[i] = isCellNeeded[i] ? oldCells[i] : null;
+                    }
+                    mCells = cells;
+                }
+                return;
+            }
 
-    void stopDrawingThread() {
-        mDrawThread.setRunning(false);
-        while (true) {
-            try {
-                mDrawThread.join();
-                break;
-            } catch (InterruptedException e) {
-                // keep trying to stop the draw thread
+            //  Android 1.6 has no region decoder, so the whole atlas is decoded (downsampled) and
+            //  then only the needed sprites are kept.
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inSampleSize = sampleSize;
+            opts.inPreferredConfig = mConfig;
+            Bitmap atlas = BitmapFactory.decodeResource(getResources(), mBitmapID, opts);
+            if (atlas == null) {
+                return;
+            }
+            int cellW = atlas.getWidth()/mSpritesInRow;
+            int cellH = atlas.getHeight()/mNumRows;
+            Bitmap[] cells = new Bitmap[mNumSprites];
+            for (int i = 0; i < mNumSprites; i++) {
+                if (!isCellNeeded[i]) {
+                    continue;
+                }
+                if (isSameSize && oldCells[i] != null) {
+                    cells[i] = oldCells[i];
+                } else {
+                    cells[i] = Bitmap.createBitmap(atlas, (i % mSpritesInRow)*cellW, (i / mSpritesInRow)*cellH,
+                            cellW, cellH);
+                }
             }
+            atlas.recycle();
+            //  the dropped sprites are not recycled, as the drawing thread may still be using them
+            mSampleSize = sampleSize;
+            mCells = cells;
+            onSpritesLoaded(this);
         }
     }
 
     /**
-     * Randomly shuffles an int array using Fisher-Yates algorithm
+     * Atlas sprites, pre-scaled to the on-screen card size.
+     * The least recently used sprites get evicted when the memory limit is hit.
+     * Must only be used from the drawing thread.
      */
-    public static void shuffleArray(int[] arr, Random generator) {
-        for (int i = arr.length - 1; i > 0; i--) {
-            int k = generator.nextInt(i + 1);
-            int val = arr[k];
-            arr[k] = arr[i];
-            arr[i] = val;
-        }
-    }
-
-    void startGame(int numCardsW, int numCardsH) {
-        mNumCardsW = numCardsW;
-        mNumCardsH = numCardsH;
-        mNumMisses = 0;
-
-        Random randGen = new Random();
-        // select random subset of available card variations
-        int variations[] = new int[CARDS_NUM_VARIATIONS];
-        for (int i = 0; i < CARDS_NUM_VARIATIONS; i++) {
-            variations[i] = i + 1;
+    class SpriteCache {
+        private Bitmap[] mSprites;
+
+        //  doubly linked LRU list over the cache slots, the head is the most recently used one
+        private int[] mPrev;
+        private int[] mNext;
+        private int mHead = -1;
+        private int mTail = -1;
+
+        private int mNumBytes = 0;
+        private int mMaxBytes;
+
+        private int mCellW = 0;
+        private int mCellH = 0;
+        private volatile int mRequestedCellW = 0;
+        private volatile int mRequestedCellH = 0;
+
+        //  composited face-up cards are kept in the slots after the atlas sprites
+        private int mFirstFaceSlot;
+        private boolean[] mFacesInPlay = null;
+        private volatile boolean[] mRequestedFacesInPlay = null;
+
+        private Canvas mCanvas = new Canvas();
+        private Paint mFilterPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        private Rect mSpriteDstRect = new Rect();
+
+        public SpriteCache(int maxBytes, SpriteAtlas... atlases) {
+            mMaxBytes = maxBytes;
+            int numSlots = 0;
+            for (SpriteAtlas atlas : atlases) {
+                atlas.mCacheSlot = numSlots;
+                numSlots += atlas.mNumSprites;
+            }
+            mFirstFaceSlot = numSlots;
+            numSlots += CARDS_NUM_VARIATIONS;
+            mSprites = new Bitmap[numSlots];
+            mPrev = new int[numSlots];
+            mNext = new int[numSlots];
         }
-        shuffleArray(variations, randGen);
 
-        // create and shuffle the cards
-        int numCells = mNumCardsW * mNumCardsH;
-        mCards = new int[numCells];
-        mCardAnims = new CardAnimation[numCells];
-        int numCards = numCells / 2;
-
-        for (int i = 0; i < numCards; i++) {
-            mCards[i * 2] = mCards[i * 2 + 1] = -variations[i];
+        /**
+         * Sets the on-screen sprite size. Can be called from any thread,
+         * the cache gets rebuilt lazily on the next access from the drawing thread.
+         */
+        public void setCellSize(int cellW, int cellH) {
+            mRequestedCellW = cellW;
+            mRequestedCellH = cellH;
         }
-        shuffleArray(mCards, randGen);
-    }
-
-    public void drawSprite(Canvas canvas, SpriteAtlas atlas, int spriteID, Rect dstRect, Paint paint) {
-        mSrcRect.left   = (spriteID % atlas.mSpritesInRow) * atlas.mSpriteW;
-        mSrcRect.top    = (spriteID / atlas.mSpritesInRow) * atlas.mSpriteH;
-        mSrcRect.right  = mSrcRect.left + CARD_W;
-        mSrcRect.bottom = mSrcRect.top + CARD_H;
-        canvas.drawBitmap(atlas.mBitmap, mSrcRect, mDstRect, paint);
-    }
 
-    public void drawCard(Canvas canvas, int cardIdx, int cardID,
-            float cardScale, Paint paint) {
-        if (cardID == 0) {
-            return;
+        public int getNumBytes() {
+            return mNumBytes;
         }
 
-        int cardI = cardIdx % mNumCardsW;
-        int cardJ = cardIdx / mNumCardsW;
-        int cardW = mBoardRect.width() / mNumCardsW;
-        int cardH = mBoardRect.height() / mNumCardsH;
-
-        int cx = cardI * cardW + mBoardRect.left;
-        int cy = cardJ * cardH + mBoardRect.top;
-        mDstRect.set(cx, cy, cx + cardW, cy + cardH);
-        int cardSW = (int) (((float) cardW) * cardScale);
-        mDstRect.left += (cardW - cardSW) / 2;
-        mDstRect.right = mDstRect.left + cardSW;
-        if (cardID > 0) {
-            drawSprite(canvas, mCardsBg, 0, mDstRect, paint);
-            drawSprite(canvas, mCardsFg, cardID - 1, mDstRect, paint);
-        } else {
-            drawSprite(canvas, mCardsBg, 1, mDstRect, paint);
+        public void clear() {
+            while (mTail != -1) {
+                evict(mTail);
+            }
         }
-    }
 
-    public void update(float dt) {
-        int numCards = mCards.length;
-        for (int i = 0; i < numCards; i++) {
-            Animation anim = mCardAnims[i];
-            if (anim != null) {
-                anim.update(dt);
-                if (!anim.isPlaying()) {
-                    mCardAnims[i] = anim.getNextAnim();
-                }
+        /**
+         * Returns the sprite scaled to the current cell size, rasterizing it if needed
+         */
+        public Bitmap get(SpriteAtlas atlas, int spriteID) {
+            if (!validate()) {
+                return null;
             }
-        }
-        if (mTopAnim != null) {
-            mTopAnim.update(dt);
-            if (!mTopAnim.isPlaying()) {
-                mTopAnim = mTopAnim.getNextAnim();
+            int slot = atlas.mCacheSlot + spriteID;
+            Bitmap sprite = lookup(slot);
+            if (sprite == null) {
+                Bitmap cell = atlas.getCell(spriteID);
+                if (cell == null) {
+                    return null;
+                }
+                sprite = createSprite();
+                rasterize(sprite, cell);
+                insert(slot, sprite);
             }
+            return sprite;
         }
-    }
 
-    public class MainView extends SurfaceView implements SurfaceHolder.Callback {
-        public MainView(Context context, AttributeSet attrs) {
-            super(context, attrs);
-            getHolder().addCallback(this);
+        /**
+         * Marks the set of card faces used by the current game.
+         * The previously composited faces get dropped on the next access from the drawing thread.
+         */
+        public void setFacesInPlay(boolean[] isFaceInPlay) {
+            mRequestedFacesInPlay = isFaceInPlay;
         }
 
-        @Override
-        public void onDraw(Canvas canvas) {
-            mSrcRect.set(0, 0, mBgBitmap.getWidth(), mBgBitmap.getHeight());
-            mDstRect.set(0, 0, getWidth(), getHeight());
-            canvas.drawBitmap(mBgBitmap, mSrcRect, mDstRect, null);
-
-            //  calibrate the board extents, so that card aspect ratio distortion is minimized
-            float cardAspect = (float)CARD_W/CARD_H;
-            float targetAspect = cardAspect*mNumCardsW/mNumCardsH;
-            float canvasW = canvas.getWidth();
-            float canvasH = canvas.getHeight();
-            float canvasAspect = canvasW/canvasH;
-            float bx, by, bw, bh;
-            if (targetAspect < canvasAspect) {
-                //  free space to the left/right
-                bh = canvasH;
-                float cardH = canvasH/(float)mNumCardsH;
-                bw = mNumCardsW*cardAspect*cardH;
-                by = 0.0f;
-                bx = (canvasW - bw)/2;
-            } else {
-                //  free space to the top/bottom
-                bw = canvasW;
-                float cardW = canvasW/(float)mNumCardsW;
-                bh = mNumCardsH*cardW/cardAspect;
-                bx = 0.0f;
-                by = (canvasH - bh)/2;
-            }
-            mBoardRect.set((int)bx, (int)by, (int)(bx + bw), (int)(by + bh));
-
-            int numCards = mCards.length;
-            for (int i = 0; i < numCards; i++) {
-                if (mCardAnims[i] == null) {
-                    drawCard(canvas, i, mCards[i], 1.0f, null);
-                } else {
-                    mCardAnims[i].draw(canvas);
-                }
+        /**
+         * Returns the face-up card (the card frame with the face on top of it) as a single bitmap.
+         * Returns null if the face is not in play.
+         */
+        public Bitmap getCardFace(int cardID) {
+            if (!validate() || mFacesInPlay == null || !mFacesInPlay[cardID - 1]) {
+                return null;
             }
-            if (mTopAnim != null) {
-                mTopAnim.draw(canvas);
+            int slot = mFirstFaceSlot + cardID - 1;
+            Bitmap face = lookup(slot);
+            if (face == null) {
+                Bitmap frame = mCardsBg.getCell(0);
+                Bitmap faceCell = mCardsFg.getCell(cardID - 1);
+                if (frame == null || faceCell == null) {
+                    return null;
+                }
+                face = createSprite();
+                rasterize(face, frame);
+                rasterize(face, faceCell);
+                insert(slot, face);
             }
+            return face;
         }
 
-        @Override
-        public boolean onTouchEvent(MotionEvent event) {
-            if (mIsGameEnded) {
-                mIsGameEnded = false;
-                startGame(mNumCardsW + 1, mNumCardsH + 1);
-                return true;
+        /**
+         * Applies the geometry and game changes, requested since the last access
+         */
+        private boolean validate() {
+            int cellW = mRequestedCellW;
+            int cellH = mRequestedCellH;
+            if (cellW != mCellW || cellH != mCellH) {
+                clear();
+                mCellW = cellW;
+                mCellH = cellH;
             }
-            int touchX = (int) event.getX();
-            int touchY = (int) event.getY();
-            int cardScreenW = mBoardRect.width() / mNumCardsW;
-            int cardScreenH = mBoardRect.height() / mNumCardsH;
-            int cardI = (touchX - mBoardRect.left) / cardScreenW;
-            int cardJ = (touchY - mBoardRect.top) / cardScreenH;
-            int cardIdx = cardJ * mNumCardsW + cardI;
-            int cardFace = mCards[cardIdx];
-            if (mCardAnims[cardIdx] == null && cardFace != 0 && cardIdx != mFlippedCardIdx)
-            {
-                CardAnimation nextAnim = null;
-                if (mFlippedCardIdx == -1) {
-                    //  no other cards are flipped
-                    mFlippedCardIdx = cardIdx;
-                } else {
-                    int flippedCardFace = mCards[mFlippedCardIdx];
-                    if (Math.abs(cardFace) == Math.abs(flippedCardFace)) {
-                        mCards[mFlippedCardIdx] = mCards[cardIdx] = 0;
-
-                        //  found a match - dissolve the cards
-                        mCardAnims[mFlippedCardIdx] =
-                                new IdleCardAnimation(mFlippedCardIdx, flippedCardFace,
-                                new IdleCardAnimation(mFlippedCardIdx, flippedCardFace,
-                                new DissolveCardAnimation(mFlippedCardIdx, flippedCardFace, null)));
-                        nextAnim = new DissolveCardAnimation(cardIdx, cardFace, null);
-
-                        String caption = mCardNames.get(Math.abs(cardFace) - 1);
-                        mTopAnim = new TextAnimation(caption, 0, getHeight(), 2.0f, null);
-
-                        //  check if all the cards are flipped
-                        boolean bAllFlipped = true;
-                        for (int i = mCards.length - 1; i >= 0 ; i--) {
-                            if (mCards[i] != 0) {
-                                bAllFlipped = false;
-                                break;
-                            }
-                        }
-                        if (bAllFlipped) {
-                            //  TODO: the screen with results (field size, num flips, place in high scores, winning language, fun fact about it)
-                            mIsGameEnded = true;
-                            /*
-                            TextAnimation endCaption = new TextAnimation(caption, 30, 100, 20.0f, null);
-                            endCaption.setColor(0xFFAAAABB);
-                            mTopAnim =
-                                new TextAnimation("This is it.", 30, 200, 2.0f,
-                                new TextAnimation("The language wars", 30, 100, 2.0f,
-                                new TextAnimation("ARE OVER.", 30, 200, 3.0f,
-                                new TextAnimation("...and the winner is", 2, 50, 7.0f, endCaption))));
-                             */
-                        }
-                    } else {
-                        //  the second flipped card does not match - flip both cards back
-                        mCardAnims[mFlippedCardIdx] =
-                                new IdleCardAnimation(mFlippedCardIdx, flippedCardFace,
-                                new IdleCardAnimation(mFlippedCardIdx, flippedCardFace,
-                                new FlipCardAnimation(mFlippedCardIdx, flippedCardFace, null)));
-                        nextAnim = new FlipCardAnimation(cardIdx, -cardFace, null);
-                        mCards[mFlippedCardIdx] = -mCards[mFlippedCardIdx];
-                        mCards[cardIdx] = -mCards[cardIdx];
-
-                        //  update the misses counter and spawn its text animation
-                        mNumMisses++;
-                        String strNumMisses = Integer.toString(mNumMisses) + (mNumMisses == 1 ? " miss" : " misses");
-                        TextAnimation missAnim = new TextAnimation(strNumMisses, 0, getHeight(), 2.0f, null);
-                        //  set the "miss" text color according to the "miss rate severity"
-                        //  TODO: less ugly color palette
-                        int nBestCaseFlips = mNumCardsH*mNumCardsW/2 + 1;
-                        int nWorstCaseFlips = mNumCardsH*mNumCardsW;
-                        if (mNumMisses > nWorstCaseFlips) {
-                            missAnim.setColor(0xFFFF2222);
-                        } else if (mNumMisses > nBestCaseFlips) {
-                            missAnim.setColor(0xFFFFFF22);
-                        } else {
-                            missAnim.setColor(0xFF22FF22);
-                        }
-                        mTopAnim = missAnim;
+            boolean[] facesInPlay = mRequestedFacesInPlay;
+            if (facesInPlay != mFacesInPlay) {
+                for (int i = 0; i < CARDS_NUM_VARIATIONS; i++) {
+                    if (mSprites[mFirstFaceSlot + i] != null) {
+                        evict(mFirstFaceSlot + i);
                     }
-                    mFlippedCardIdx = -1;
                 }
-                mCardAnims[cardIdx] =
-                    new FlipCardAnimation(cardIdx, cardFace,
-                    new IdleCardAnimation(cardIdx, cardFace, nextAnim));
-                mCards[cardIdx] = -mCards[cardIdx];
+                mFacesInPlay = facesInPlay;
             }
-            return true;
+            return mCellW > 0 && mCellH > 0;
         }
 
-        @Override
-        public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
+        private Bitmap lookup(int slot) {
+            Bitmap sprite = mSprites[slot];
+            if (sprite != null) {
+                unlink(slot);
+                linkFirst(slot);
+            }
+            return sprite;
         }
 
-        @Override
-        public void surfaceCreated(SurfaceHolder holder) {
-            startDrawingThread();
+        private Bitmap createSprite() {
+            Bitmap sprite = Bitmap.createBitmap(mCellW, mCellH, Bitmap.Config.ARGB_8888);
+            mCanvas.setBitmap(sprite);
+            return sprite;
         }
 
-        @Override
-        public void surfaceDestroyed(SurfaceHolder holder) {
-            stopDrawingThread();
+        private void rasterize(Bitmap sprite, Bitmap cell) {
+            mSpriteDstRect.set(0, 0, mCellW, mCellH);
+            mCanvas.drawBitmap(cell, null, mSpriteDstRect, mFilterPaint);
         }
-    }
 
-    class DrawThread extends Thread {
-        private SurfaceHolder mSurfaceHolder;
-        private boolean mIsRunning = false;
-        private long mLastTime;
+        private void insert(int slot, Bitmap sprite) {
+            mSprites[slot] = sprite;
+            mNumBytes += sprite.getRowBytes()*sprite.getHeight();
+            linkFirst(slot);
+            //  never evict the sprite which is about to be drawn
+            while (mNumBytes > mMaxBytes && mTail != slot) {
+                evict(mTail);
+            }
+        }
 
-        public DrawThread(SurfaceHolder surfaceHolder) {
-            mSurfaceHolder = surfaceHolder;
+        private void evict(int slot) {
+            Bitmap sprite = mSprites[slot];
+            mNumBytes -= sprite.getRowBytes()*sprite.getHeight();
+            sprite.recycle();
+            mSprites[slot] = null;
+            unlink(slot);
         }
 
-        public void setRunning(boolean isRunning) {
-            mIsRunning = isRunning;
+        private void linkFirst(int slot) {
+            mPrev[slot] = -1;
+            mNext[slot] = mHead;
+            if (mHead != -1) {
+                mPrev[mHead] = slot;
+            }
+            mHead = slot;
+            if (mTail == -1) {
+                mTail = slot;
+            }
         }
 
-        @Override
-        public void run() {
-            Canvas c;
-            mLastTime = SystemClock.uptimeMillis();
-            while (mIsRunning) {
-                final long time = SystemClock.uptimeMillis();
-                final float timeDelta = ((float)(time - mLastTime)) * 0.001f;
-                mLastTime = time;
-                update(timeDelta);
-                c = null;
-                try {
-                    c = mSurfaceHolder.lockCanvas(null);
-                    synchronized (mSurfaceHolder) {
-                        mView.onDraw(c);
-                    }
-                } finally {
-                    if (c != null) {
-                        mSurfaceHolder.unlockCanvasAndPost(c);
-                    }
-                }
+        private void unlink(int slot) {
+            int prev = mPrev[slot];
+            int next = mNext[slot];
+            if (prev != -1) {
+                mNext[prev] = next;
+            } else {
+                mHead = next;
+            }
+            if (next != -1) {
+                mPrev[next] = prev;
+            } else {
+                mTail = prev;
             }
         }
     }
 
     /**
-     * Base class for the game animations
+     * Captions, rasterized (fill and stroke together) once at their final text size.
+     * The captions are then animated by scaling the bitmaps, instead of re-rasterizing
+     * the glyphs at a new size on every frame.
+     * Must only be used from the drawing thread.
      */
-    class Animation {
-        protected float mDuration = 0.5f;
-        protected float mCurTime = 0.0f;
-        protected boolean mIsPlaying = false;
+    class CaptionCache {
+        private final String[] mCaptions;
+        private final int[] mColors;
+        private final float[] mTextSizes;
+        private final float[] mBaselines;
+        private final Bitmap[] mBitmaps;
+        private final long[] mLastUse;
+        private long mUseCounter = 0;
+
+        private int mNumBytes = 0;
+        private final int mMaxBytes;
+
+        private final Canvas mCanvas = new Canvas();
+        private final Paint mPaint = new Paint();
+        private final Paint mStrokePaint = new Paint();
+
+        public CaptionCache(int maxEntries, int maxBytes) {
+            mMaxBytes = maxBytes;
+            mCaptions = new String[maxEntries];
+            mColors = new int[maxEntries];
+            mTextSizes = new float[maxEntries];
+            mBaselines = new float[maxEntries];
+            mBitmaps = new Bitmap[maxEntries];
+            mLastUse = new long[maxEntries];
+
+            mPaint.setTypeface(Typeface.DEFAULT_BOLD);
+            mPaint.setAntiAlias(true);
+            mPaint.setTextAlign(Align.CENTER);
+
+            mStrokePaint.setColor(0xFF000000);
+            mStrokePaint.setTypeface(Typeface.DEFAULT_BOLD);
+            mStrokePaint.setAntiAlias(true);
+            mStrokePaint.setTextAlign(Align.CENTER);
+            mStrokePaint.setStyle(Paint.Style.STROKE);
+            mStrokePaint.setStrokeWidth(2);
+        }
+
+        /**
+         * Returns the cache entry with the caption, rasterizing it if needed
+         */
+        public int get(String caption, int color, float textSize) {
+            int lruEntry = 0;
+            for (int i = 0; i < mCaptions.length; i++) {
+                if (mBitmaps[i] != null && mColors[i] == color && caption.equals(mCaptions[i])) {
+                    mLastUse[i] = ++mUseCounter;
+                    return i;
+                }
+                if (mLastUse[i] < mLastUse[lruEntry]) {
+                    lruEntry = i;
+                }
+            }
+
+            //  the bitmap size is limited, the caption gets upscaled if it is wider than that
+            mStrokePaint.setTextSize(textSize);
+            float textW = mStrokePaint.measureText(caption);
+            if (textW > CAPTION_MAX_BITMAP_W) {
+                textSize *= CAPTION_MAX_BITMAP_W/textW;
+            }
+            textSize = Math.max(textSize, 1.0f);
+            int margin = 4;
+            int w, h, numBytes;
+            float baseline;
+            while (true) {
+                mStrokePaint.setTextSize(textSize);
+                w = (int) mStrokePaint.measureText(caption) + margin*2;
+                baseline = margin - mStrokePaint.ascent();
+                h = (int) (baseline + mStrokePaint.descent()) + margin;
+                numBytes = w*h*4;
+                if (numBytes <= mMaxBytes || textSize <= 1.0f) {
+                    break;
+                }
+                //  a caption has to fit into the cache on its own, the bitmap area grows
+                //  with the square of the text size (a bit slower, with the margins)
+                textSize = Math.max(textSize*(float) Math.sqrt((double) mMaxBytes/numBytes)*0.95f, 1.0f);
+            }
+            mPaint.setTextSize(textSize);
 
-        protected Animation mNextAnim = null;
+            evict(lruEntry);
+            for (int i = 0; i < mCaptions.length && mNumBytes + numBytes > mMaxBytes; i++) {
+                evict(i);
+            }
 
-        public Animation(Animation nextAnim) {
-            mNextAnim = nextAnim;
-            start();
+            Bitmap bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            mCanvas.setBitmap(bitmap);
+            mPaint.setColor(color);
+            mCanvas.drawText(caption, w/2, baseline, mPaint);
+            mCanvas.drawText(caption, w/2, baseline, mStrokePaint);
+
+            mCaptions[lruEntry] = caption;
+            mColors[lruEntry] = color;
+            mTextSizes[lruEntry] = textSize;
+            mBaselines[lruEntry] = baseline;
+            mBitmaps[lruEntry] = bitmap;
+            mLastUse[lruEntry] = ++mUseCounter;
+            mNumBytes += numBytes;
+            return lruEntry;
         }
 
-        public void start() {
-            mCurTime = 0.0f;
-            mIsPlaying = true;
+        public Bitmap getBitmap(int entry) {
+            return mBitmaps[entry];
         }
 
-        public Animation getNextAnim() {
-            return mNextAnim;
+        /** The text size, at which the caption was rasterized */
+        public float getTextSize(int entry) {
+            return mTextSizes[entry];
         }
 
-        public void setDuration(float duration) {
-            mDuration = duration;
+        /** The text baseline position inside of the caption bitmap */
+        public float getBaseline(int entry) {
+            return mBaselines[entry];
         }
 
-        public void update(double dt) {
-            if (mIsPlaying) {
-                mCurTime += dt;
-                if (mCurTime > mDuration) {
-                    mIsPlaying = false;
-                }
+        public void clear() {
+            for (int i = 0; i < mCaptions.length; i++) {
+                evict(i);
             }
         }
 
-        public boolean isPlaying() {
-            return mIsPlaying;
+        private void evict(int entry) {
+            Bitmap bitmap = mBitmaps[entry];
+            if (bitmap != null) {
+                mNumBytes -= bitmap.getWidth()*bitmap.getHeight()*4;
+                bitmap.recycle();
+                mBitmaps[entry] = null;
+            }
+            mCaptions[entry] = null;
+            mLastUse[entry] = 0;
+        }
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mCreateTime = SystemClock.uptimeMillis();
+
+        //  game window setup
+        requestWindowFeature(Window.FEATURE_NO_TITLE);
+        setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
+        getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN,
+                WindowManager.LayoutParams.FLAG_FULLSCREEN);
+
+        setContentView(R.layout.main);
+        FrameLayout layout = (FrameLayout)findViewById(R.id.top_layout);
+        setRenderer(getPreferences(MODE_PRIVATE).getBoolean(PREF_GL_RENDERER, DEFAULT_GL_RENDERER));
+        mMinCellW = (int) (MIN_CELL_W_DIP*getResources().getDisplayMetrics().density);
+        try {
+            mLevels = LevelProgression.parse(getString(R.string.levels));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Bad levels progression, using the default one", e);
+            mLevels = LevelProgression.parse(DEFAULT_LEVELS);
+        }
+        mTouchSlop = ViewConfiguration.get(this).getScaledTouchSlop();
+
+        //  no multi-touch before Android 2.0, so the zooming goes through the buttons
+        ZoomControls zoomControls = new ZoomControls(this);
+        zoomControls.setOnZoomInClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                mInputQueue.push(InputQueue.EVENT_ZOOM, 1, 0);
+                requestRender();
+            }
+        });
+        zoomControls.setOnZoomOutClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                mInputQueue.push(InputQueue.EVENT_ZOOM, -1, 0);
+                requestRender();
+            }
+        });
+        layout.addView(zoomControls, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.BOTTOM | Gravity.RIGHT));
+
+        //  everything is loaded in the background, the sprites get requested once the board size is known,
+        //  unless the resources are passed over from the previous instance of the activity
+        RetainedState retained = (RetainedState) getLastNonConfigurationInstance();
+        mLoader = Executors.newSingleThreadExecutor();
+        mCardsFg = new SpriteAtlas(R.drawable.cards_fg, 12, 12, CARD_W, CARD_H, Bitmap.Config.ARGB_8888);
+        mCardsBg = new SpriteAtlas(R.drawable.cards_bg, 2, 1, CARD_W, CARD_H, Bitmap.Config.ARGB_8888);
+        mSpriteCache = new SpriteCache(SPRITE_CACHE_MAX_BYTES, mCardsFg, mCardsBg);
+        mProgressPaint.setColor(TEXT_COLOR);
+        mScores = new ScoreStore(new File(getFilesDir(), SCORES_FILE_NAME), SCORES_MAX_TOP, SCORES_COMPACT_SIZE);
+        if (retained != null) {
+            mBgBitmap = retained.mBgBitmap;
+            mCardInfo = retained.mCardInfo;
+            mScores = retained.mScores;
+            mRecord = retained.mRecord;
+            if (retained.mCardsFgCells != null) {
+                mCardsFg.setCells(retained.mCardsFgCells, retained.mCardsFgSampleSize);
+                onStageLoaded(STAGE_CARD_FACES);
+            }
+            if (retained.mCardsBgCells != null) {
+                mCardsBg.setCells(retained.mCardsBgCells, retained.mCardsBgSampleSize);
+                onStageLoaded(STAGE_CARD_BACKS);
+            }
+        }
+        startLoading();
+
+        //  continue the game in progress, if any
+        byte[] boardSnapshot = null;
+        if (retained != null) {
+            boardSnapshot = retained.mBoardSnapshot;
+        } else if (savedInstanceState != null) {
+            boardSnapshot = savedInstanceState.getByteArray(KEY_BOARD);
+        }
+        if (boardSnapshot != null) {
+            try {
+                mBoard.restoreState(boardSnapshot);
+                if (retained == null) {
+                    //  the record of the session starts over, from the restored board
+                    mRecord.addRestore(SystemClock.uptimeMillis(), boardSnapshot);
+                }
+                setupBoard();
+                return;
+            } catch (java.io.IOException e) {
+                Log.w(TAG, "Failed to restore the game", e);
+            }
         }
+        startGame(mLevels.getFirstW(), mLevels.getFirstH());
+    }
 
-        public void draw(Canvas canvas) {
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        byte[] boardSnapshot = mBoardSnapshot;
+        if (boardSnapshot != null) {
+            outState.putByteArray(KEY_BOARD, boardSnapshot);
         }
     }
 
     /**
-     * Base class for card animations
+     * Passes the decoded resources and the game over to the new activity instance,
+     * when the activity gets recreated on a configuration change
      */
-    class CardAnimation extends Animation {
-        protected int mCardIdx = -1;
-        protected int mCardID = -1;
-
-        public CardAnimation(int cardIdx, int cardID, Animation nextAnim) {
-            super(nextAnim);
-            mCardIdx = cardIdx;
-            mCardID = cardID;
-        }
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        RetainedState retained = new RetainedState();
+        retained.mBgBitmap = mBgBitmap;
+        retained.mCardInfo = mCardInfo;
+        retained.mCardsFgSampleSize = mCardsFg.getSampleSize();
+        retained.mCardsFgCells = mCardsFg.getCells();
+        retained.mCardsBgSampleSize = mCardsBg.getSampleSize();
+        retained.mCardsBgCells = mCardsBg.getCells();
+        retained.mBoardSnapshot = mBoardSnapshot;
+        retained.mRecord = mRecord;
+        retained.mScores = mScores;
+        return retained;
     }
 
     /**
-     * The "idle" card animation (draws the card in static position)
+     * Queues the loading of the resources, which do not depend on the board
      */
-    class IdleCardAnimation extends CardAnimation {
-        public IdleCardAnimation(int cardIdx, int cardID, CardAnimation nextAnim) {
-            super(cardIdx, cardID, nextAnim);
+    void startLoading() {
+        if (!mScores.isLoaded()) {
+            mLoader.execute(new Runnable() {
+                public void run() {
+                    try {
+                        mScores.load();
+                    } catch (java.io.IOException e) {
+                        Log.e(TAG, "Failed to load the scores", e);
+                    }
+                    //  the results of the games won while loading
+                    mFlushScoresTask.run();
+                }
+            });
         }
-
-        @Override
-        public void draw(Canvas canvas) {
-            int cardID = Math.abs(mCardID);
-            drawCard(canvas, mCardIdx, cardID, 1.0f, null);
+        if (mCardInfo != null) {
+            onStageLoaded(STAGE_CARD_INFO);
+        } else {
+            mLoader.execute(new Runnable() {
+                public void run() {
+                    try {
+                        CardInfoTable cardInfo = new CardInfoTable(mapAsset("languages.bin"));
+                        if (cardInfo.size() != CARDS_NUM_VARIATIONS) {
+                            Log.e(TAG, "Expected " + CARDS_NUM_VARIATIONS + " cards info entries, got " + cardInfo.size());
+                        }
+                        mCardInfo = cardInfo;
+                    } catch (java.io.IOException e) {
+                        Log.e(TAG, "Failed to load the languages description", e);
+                    }
+                    onStageLoaded(STAGE_CARD_INFO);
+                }
+            });
+        }
+        if (mBgBitmap != null) {
+            onStageLoaded(STAGE_BACKGROUND);
+        } else {
+            mLoader.execute(new Runnable() {
+                public void run() {
+                    //  the background is opaque and only needs to match the screen size
+                    BitmapFactory.Options opts = new BitmapFactory.Options();
+                    opts.inJustDecodeBounds = true;
+                    BitmapFactory.decodeResource(getResources(), R.drawable.background, opts);
+                    DisplayMetrics metrics = getResources().getDisplayMetrics();
+                    int screenW = Math.max(metrics.widthPixels, metrics.heightPixels);
+                    int screenH = Math.min(metrics.widthPixels, metrics.heightPixels);
+                    int sampleSize = 1;
+                    while (opts.outWidth/(sampleSize*2) >= screenW && opts.outHeight/(sampleSize*2) >= screenH) {
+                        sampleSize *= 2;
+                    }
+                    opts.inJustDecodeBounds = false;
+                    opts.inSampleSize = sampleSize;
+                    opts.inPreferredConfig = Bitmap.Config.RGB_565;
+                    mBgBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.background, opts);
+                    onStageLoaded(STAGE_BACKGROUND);
+                }
+            });
         }
     }
 
     /**
-     * Card flipping animation
+     * Called from the loader thread, when a loading stage is complete
      */
-    class FlipCardAnimation extends CardAnimation {
-        public FlipCardAnimation(int cardIdx, int cardID, CardAnimation nextAnim) {
-            super(cardIdx, cardID, nextAnim);
+    synchronized void onStageLoaded(int stage) {
+        if ((mLoadedStages & stage) == 0) {
+            mLoadedStages |= stage;
+            Log.i(TAG, "Loading stage " + stage + " done in " + (SystemClock.uptimeMillis() - mCreateTime) + " ms");
         }
+        mIsResourcesChanged = true;
+        requestRender();
+    }
 
-        @Override
-        public void draw(Canvas canvas) {
-            double scale = Math.cos(Math.PI*mCurTime/mDuration);
-            int cardID = (scale > 0) ? mCardID : -mCardID;
-            drawCard(canvas, mCardIdx, cardID, (float) Math.abs(scale), null);
-        }
+    /**
+     * Fraction of the loading stages completed, from 0 to 1
+     */
+    float getLoadingProgress() {
+        return Integer.bitCount(mLoadedStages)/(float)Integer.bitCount(ALL_STAGES);
     }
 
     /**
-     * Card dissolving animation
+     * Maps the asset into memory, if it is stored uncompressed in the package.
+     * Otherwise the asset gets read into a buffer.
      */
-    class DissolveCardAnimation extends CardAnimation {
-        private Paint mPaint = new Paint();
-        public DissolveCardAnimation(int cardIdx, int cardID, CardAnimation nextAnim) {
-            super(cardIdx, cardID, nextAnim);
-            mDuration = 1.0f;
-        }
-        @Override
-        public void draw(Canvas canvas) {
-            int cardID = Math.abs(mCardID);
-            mPaint.setAlpha((int) (255.0f*(1 - mCurTime/mDuration)));
-            drawCard(canvas, mCardIdx, cardID, 1.0f, mPaint);
+    ByteBuffer mapAsset(String fileName) throws java.io.IOException {
+        try {
+            AssetFileDescriptor fd = getAssets().openFd(fileName);
+            try {
+                //  the mapping stays valid after the descriptor is closed
+                FileChannel channel = new FileInputStream(fd.getFileDescriptor()).getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+            } finally {
+                fd.close();
+            }
+        } catch (java.io.FileNotFoundException e) {
+            //  compressed assets can not be opened as file descriptors
         }
+        return ByteBuffer.wrap(readStream(getAssets().open(fileName)));
     }
 
     /**
-     * Flying colored text animation
+     * Reads the stream to the end and closes it
      */
-    class TextAnimation extends Animation {
-        private int mStartTextSize = 30;
-        private int mEndTextSize = 300;
-        private String mCaption = "";
-
-        private Paint mPaint = new Paint();
-        private Paint mStrokePaint = new Paint();
-        public TextAnimation(String caption, int startTextSize, int endTextSize, float duration, Animation nextAnim) {
-            super(nextAnim);
-            mDuration = duration;
-            mCaption = caption;
-            mEndTextSize = endTextSize;
-            mStartTextSize = startTextSize;
+    static byte[] readStream(InputStream in) throws java.io.IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                bytes.write(buf, 0, len);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
 
-            mPaint.setColor(0xFF2222AA);
-            mPaint.setTypeface(Typeface.DEFAULT_BOLD);
-            mPaint.setAntiAlias(true);
-            mPaint.setTextAlign(Align.CENTER);
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(Menu.NONE, MENU_STATS, Menu.NONE, R.string.menu_stats);
+        menu.add(Menu.NONE, MENU_SAVE_TRACE, Menu.NONE, R.string.menu_save_trace);
+        menu.add(Menu.NONE, MENU_SAVE_RECORD, Menu.NONE, R.string.menu_save_record);
+        menu.add(Menu.NONE, MENU_REPLAY, Menu.NONE, R.string.menu_replay);
+        menu.add(Menu.NONE, MENU_PLAYERS, Menu.NONE, R.string.menu_players);
+        menu.add(Menu.NONE, MENU_NETWORK, Menu.NONE, R.string.menu_network);
+        menu.add(Menu.NONE, MENU_CONTINUOUS, Menu.NONE, R.string.menu_continuous);
+        menu.add(Menu.NONE, MENU_COUNT_ALLOCS, Menu.NONE, R.string.menu_count_allocs);
+        menu.add(Menu.NONE, MENU_GL_RENDERER, Menu.NONE, R.string.menu_gl_renderer);
+        return true;
+    }
 
-            mStrokePaint.setColor(0xFF000000);
-            mStrokePaint.setTypeface(Typeface.DEFAULT_BOLD);
-            mStrokePaint.setAntiAlias(true);
-            mStrokePaint.setTextAlign(Align.CENTER);
-            mStrokePaint.setStyle(Paint.Style.STROKE);
-            mStrokePaint.setStrokeWidth(2);
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case MENU_STATS:
+                mIsStatsShown = !mIsStatsShown;
+                break;
+            case MENU_SAVE_TRACE:
+                mIsTraceSaveRequested = true;
+                break;
+            case MENU_SAVE_RECORD:
+                mIsRecordSaveRequested = true;
+                break;
+            case MENU_REPLAY:
+                loadReplay();
+                return true;
+            case MENU_PLAYERS:
+                //  takes effect from the next board on
+                mNumLocalPlayers = mNumLocalPlayers % MAX_LOCAL_PLAYERS + 1;
+                return true;
+            case MENU_NETWORK:
+                toggleMatch();
+                return true;
+            case MENU_CONTINUOUS:
+                mIsContinuous = !mIsContinuous;
+                applyDrawMode();
+                return true;
+            case MENU_COUNT_ALLOCS:
+                //  the counts get shown with the frame stats
+                mIsCountingAllocs = !mIsCountingAllocs;
+                if (mIsCountingAllocs) {
+                    mIsStatsShown = true;
+                }
+                applyDrawMode();
+                break;
+            case MENU_GL_RENDERER:
+                setRenderer(!mIsGLRenderer);
+                SharedPreferences.Editor editor = getPreferences(MODE_PRIVATE).edit();
+                editor.putBoolean(PREF_GL_RENDERER, mIsGLRenderer);
+                editor.commit();
+                return true;
+            default:
+                return false;
         }
+        //  these get handled by the drawing thread, which owns the trace and the record
+        requestRender();
+        return true;
+    }
 
-        void setColor(int color) {
-            mPaint.setColor(color);
+    @Override
+    protected void onPause() {
+        super.onPause();
+        GLMainView glView = mGLView;
+        if (glView != null) {
+            glView.onPause();
         }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        GLMainView glView = mGLView;
+        if (glView != null) {
+            glView.onResume();
+        }
+    }
+
+    /**
+     * Puts up the OpenGL ES view or the canvas one in place of the current view. The game state
+     * carries over, as the old view stops its thread (the drawing or the rendering one) before it goes.
+     */
+    void setRenderer(boolean isGL) {
+        FrameLayout layout = (FrameLayout)findViewById(R.id.top_layout);
+        GLMainView glView = mGLView;
+        if (glView != null) {
+            if (isGL) {
+                return;
+            }
+            //  waits for the rendering thread to let go of the game state
+            glView.onPause();
+            mGLView = null;
+            layout.removeView(glView);
+        }
+        MainView view = mView;
+        if (view != null) {
+            if (!isGL) {
+                return;
+            }
+            //  the surface goes away with the view, which stops the drawing thread
+            layout.removeView(view);
+            mView = null;
+        }
+        mIsGLRenderer = isGL;
+        if (isGL) {
+            glView = new GLMainView(this);
+            mGLView = glView;
+            layout.addView(glView, 0);
+            applyDrawMode();
+        } else {
+            view = new MainView(this, null);
+            mView = view;
+            layout.addView(view, 0);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mLoader.shutdownNow();
+        MatchClient client = mMatchClient;
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    void startDrawingThread() {
+        //  a thread can only be started once, so every new surface gets a new drawing thread
+        DrawThread drawThread = new DrawThread(mView.getHolder());
+        invalidateAll();
+        drawThread.setTargetFPS(TARGET_FPS);
+        drawThread.setRunning(true);
+        mDrawThread = drawThread;
+        applyDrawMode();
+        drawThread.start();
+    }
+
+    /**
+     * Switches the drawing between the continuous and the on demand mode, and the allocation
+     * counting on or off, as set from the menu
+     */
+    void applyDrawMode() {
+        DrawThread drawThread = mDrawThread;
+        if (drawThread != null) {
+            drawThread.setMode(mIsContinuous ? DrawThread.MODE_CONTINUOUS : DrawThread.MODE_ON_DEMAND);
+            drawThread.setAllocCounting(mIsCountingAllocs);
+        }
+        GLMainView glView = mGLView;
+        if (glView != null) {
+            glView.setRenderMode(mIsContinuous ? GLSurfaceView.RENDERMODE_CONTINUOUSLY
+                    : GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        }
+    }
+
+    void stopDrawingThread() {
+        mDrawThread.setRunning(false);
+        while (true) {
+            try {
+                mDrawThread.join();
+                mDrawThread = null;
+                break;
+            } catch (InterruptedException e) {
+                // keep trying to stop the draw thread
+            }
+        }
+    }
+
+    void startGame(int numCardsW, int numCardsH) {
+        startGame(numCardsW, numCardsH, mSeedGenerator.nextLong());
+    }
+
+    /**
+     * Deals a new game from the seed, and logs it to the session record
+     */
+    void startGame(int numCardsW, int numCardsH, long seed) {
+        mBoard.setSeed(seed);
+        mBoard.startGame(numCardsW, numCardsH);
+        mRecord.addNewGame(SystemClock.uptimeMillis(), seed, numCardsW, numCardsH);
+        setupBoard();
+    }
+
+    /**
+     * Switches to the next level, which is normally dealt already, so that nothing but the swap
+     * happens here. Otherwise it gets dealt right away.
+     */
+    void startNextLevel() {
+        PreparedLevel level = mNextLevel;
+        if (level == null || level.mSerial != mLevelSerial) {
+            mLevels.getNextSize(mBoard.getNumCardsW(), mBoard.getNumCardsH(), mNextSize);
+            startGame(mNextSize[0], mNextSize[1]);
+            return;
+        }
+        mBoard = level.mBoard;
+        mRecord.addNewGame(SystemClock.uptimeMillis(), level.mSeed, mBoard.getNumCardsW(), mBoard.getNumCardsH());
+        showBoard(level.mAnims, level.mFacesInPlay, level.mSnapshot);
+    }
+
+    /**
+     * Prepares the presentation of a freshly dealt or restored board
+     */
+    void setupBoard() {
+        int numCells = mBoard.getNumCells();
+        AnimationTracks anims = mAnims;
+        if (anims == null || anims.getNumCardTracks() < numCells) {
+            anims = new AnimationTracks(numCells);
+        } else {
+            anims.reset();
+        }
+        showBoard(anims, getFacesInPlay(mBoard), mBoard.saveState());
+    }
+
+    static boolean[] getFacesInPlay(GameBoard board) {
+        boolean[] isFaceInPlay = new boolean[CARDS_NUM_VARIATIONS];
+        for (int i = board.getNumFacesInPlay() - 1; i >= 0; i--) {
+            isFaceInPlay[board.getFaceInPlay(i) - 1] = true;
+        }
+        return isFaceInPlay;
+    }
+
+    void showBoard(AnimationTracks anims, boolean[] isFaceInPlay, byte[] boardSnapshot) {
+        mAnims = anims;
+        mSpriteCache.setFacesInPlay(isFaceInPlay);
+        mFacesInPlay = isFaceInPlay;
+
+        //  a new board gets shown whole, or as much of it as fits
+        mLayout = new BoardLayout(mSurfaceW, mSurfaceH, mBoard.getNumCardsW(), mBoard.getNumCardsH(), CARD_W, CARD_H,
+                mMinCellW, 1.0f, 0.5f, 0.5f);
+        invalidateAll();
+        mBoardSnapshot = boardSnapshot;
+        //  a restored game gets timed from the restore on, and starts with the first player
+        mGameStartTime = SystemClock.uptimeMillis();
+        mTurns.start(mLocalPlayer != -1 ? mNumMatchPlayers : mNumLocalPlayers);
+        mIsFlipSent = false;
+        if (mTurns.getNumPlayers() > 1) {
+            showTurn();
+        }
+        //  the sprites of the next level get requested on top of these, so these go first
+        requestSprites();
+        prepareNextLevel();
+    }
+
+    /**
+     * Deals the level after the current board on the loader thread, with everything the swap needs:
+     * the shuffled cards, the animation tracks, the snapshot and the sprites of its faces
+     */
+    void prepareNextLevel() {
+        mNextLevel = null;
+        final int serial = ++mLevelSerial;
+        if (mLocalPlayer != -1) {
+            //  the server deals the levels of a networked match
+            return;
+        }
+        mLevels.getNextSize(mBoard.getNumCardsW(), mBoard.getNumCardsH(), mNextSize);
+        final int numCardsW = mNextSize[0];
+        final int numCardsH = mNextSize[1];
+        final long seed = mSeedGenerator.nextLong();
+        final boolean[] facesInPlay = mFacesInPlay;
+        final BoardLayout layout = mLayout;
+        final BoardLayout nextLayout = new BoardLayout(mSurfaceW, mSurfaceH, numCardsW, numCardsH, CARD_W, CARD_H,
+                mMinCellW, 1.0f, 0.5f, 0.5f);
+        mLoader.execute(new Runnable() {
+            public void run() {
+                PreparedLevel level = new PreparedLevel();
+                level.mSerial = serial;
+                level.mSeed = seed;
+                level.mBoard = new GameBoard();
+                level.mBoard.setSeed(seed);
+                level.mBoard.startGame(numCardsW, numCardsH);
+                level.mAnims = new AnimationTracks(level.mBoard.getNumCells());
+                level.mFacesInPlay = getFacesInPlay(level.mBoard);
+                level.mSnapshot = level.mBoard.saveState();
+                level.mWarmFaces = new boolean[CARDS_NUM_VARIATIONS];
+                for (int i = 0; i < CARDS_NUM_VARIATIONS; i++) {
+                    level.mWarmFaces[i] = facesInPlay[i] || level.mFacesInPlay[i];
+                }
+                mNextLevel = level;
+
+                //  the new faces get decoded now, at the size of both levels,
+                //  so that the current board keeps its sharp sprites until the swap
+                mCardsFg.request(level.mWarmFaces, Math.max(layout.getCellW(), nextLayout.getCellW()),
+                        Math.max(layout.getCellH(), nextLayout.getCellH()));
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the card layout for the current board and surface size, keeping the viewport
+     */
+    void updateLayout() {
+        BoardLayout layout = mLayout;
+        setLayout(new BoardLayout(mSurfaceW, mSurfaceH, mBoard.getNumCardsW(), mBoard.getNumCardsH(), CARD_W, CARD_H,
+                mMinCellW, layout.getZoom(), layout.getCenterX(), layout.getCenterY()));
+    }
+
+    /**
+     * Switches to the card layout of the same board, requesting the sprites if the cell size changes
+     */
+    void setLayout(BoardLayout layout) {
+        BoardLayout prevLayout = mLayout;
+        mLayout = layout;
+        invalidateAll();
+        if (layout.getCellW() != prevLayout.getCellW() || layout.getCellH() != prevLayout.getCellH()) {
+            requestSprites();
+        }
+    }
+
+    /**
+     * Requests the sprites of the faces in play at the cell size,
+     * along with the faces of the next level, if it is dealt already
+     */
+    void requestSprites() {
+        int cellW = mLayout.getCellW();
+        int cellH = mLayout.getCellH();
+        PreparedLevel nextLevel = mNextLevel;
+        boolean[] faces = (nextLevel != null && nextLevel.mSerial == mLevelSerial) ? nextLevel.mWarmFaces : mFacesInPlay;
+        mSpriteCache.setCellSize(cellW, cellH);
+        mCardsBg.request(ALL_CARD_FRAMES, cellW, cellH);
+        mCardsFg.request(faces, cellW, cellH);
+    }
+
+    /**
+     * Called from the loader thread, when new sprites are available
+     */
+    void onSpritesLoaded(SpriteAtlas atlas) {
+        onStageLoaded(atlas == mCardsBg ? STAGE_CARD_BACKS : STAGE_CARD_FACES);
+    }
+
+    /**
+     * Marks the whole screen to be repainted on the next frame
+     */
+    void invalidateAll() {
+        mIsFullRedraw = true;
+    }
+
+    /**
+     * Marks the card cell to be repainted on the next frame
+     */
+    void invalidateCard(int cardIdx) {
+        getCardRect(cardIdx, mCellRect);
+        //  the cells scrolled out of the screen would only grow the dirty area
+        if (mCellRect.intersect(0, 0, mSurfaceW, mSurfaceH)) {
+            mDirtyRect.union(mCellRect);
+        }
+    }
+
+    /**
+     * Returns true if there is anything to be repainted on the next frame
+     */
+    boolean isDirty() {
+        return mIsFullRedraw || !mDirtyRect.isEmpty();
+    }
+
+    /**
+     * Gets the screen rectangle of the card cell
+     */
+    void getCardRect(int cardIdx, Rect rect) {
+        BoardLayout layout = mLayout;
+        int cx = layout.getCellLeft(cardIdx);
+        int cy = layout.getCellTop(cardIdx);
+        rect.set(cx, cy, cx + layout.getCellW(), cy + layout.getCellH());
+    }
+
+    /**
+     * Gets the screen rectangle of the card, horizontally squeezed by the flip animation
+     */
+    void getCardRect(int cardIdx, float cardScale, Rect rect) {
+        getCardRect(cardIdx, rect);
+        int cardW = rect.width();
+        int cardSW = (int) (((float) cardW) * cardScale);
+        rect.left += (cardW - cardSW) / 2;
+        rect.right = rect.left + cardSW;
+    }
+
+    /**
+     * Draws the parts of the scene, which intersect the clip rectangle
+     */
+    void drawScene(BoardRenderer renderer, Rect clipRect) {
+        renderer.drawBackground(mBgBitmap);
+
+        //  only the cells in the clip rectangle, however large the board is
+        BoardLayout layout = mLayout;
+        int numCardsW = layout.getNumCardsW();
+        int lastCol = layout.getLastColumn(clipRect.right);
+        int lastRow = layout.getLastRow(clipRect.bottom);
+        for (int row = layout.getFirstRow(clipRect.top); row <= lastRow; row++) {
+            for (int col = layout.getFirstColumn(clipRect.left); col <= lastCol; col++) {
+                int i = row*numCardsW + col;
+                if (mAnims.isPlaying(i)) {
+                    mAnims.draw(renderer, i);
+                } else {
+                    renderer.drawCard(i, mBoard.getCard(i), 1.0f, 1.0f);
+                }
+            }
+        }
+        int textTrack = mAnims.getTextTrack();
+        if (mAnims.isPlaying(textTrack) && Rect.intersects(mTextRect, clipRect)) {
+            mAnims.draw(renderer, textTrack);
+        }
+        if (mLoadedStages != ALL_STAGES) {
+            renderer.drawProgress(getLoadingProgress());
+        }
+        if (mStatsOverlay.isShown() && Rect.intersects(mStatsOverlay.getBounds(), clipRect)) {
+            renderer.drawCaption(mStatsOverlay.getBitmap(), mStatsOverlay.getRect(), 1.0f);
+        }
+    }
+
+    /**
+     * Completes the trace of the frame, which started at the given System.nanoTime()
+     */
+    void endTraceFrame(long startTime, int numFrameAllocs) {
+        //  the VM only counts the GCs while the allocation counting is on
+        int numGcs = Debug.getGlobalGcInvocationCount();
+        mTrace.setPhase(FrameTrace.PHASE_FRAME, startTime, System.nanoTime());
+        mTrace.endFrame(Math.max(numGcs - mLastNumGcs, 0), numFrameAllocs, mNumActiveAnims);
+        mLastNumGcs = numGcs;
+        if (mIsTraceSaveRequested) {
+            mIsTraceSaveRequested = false;
+            saveTrace();
+        }
+    }
+
+    /**
+     * Exports the frame trace to the external storage
+     */
+    void saveTrace() {
+        StringWriter json = new StringWriter();
+        try {
+            mTrace.writeTraceEvents(json);
+            saveExternalFile(TRACE_FILE_NAME, json.toString().getBytes("UTF-8"));
+        } catch (java.io.IOException e) {
+            //  can not happen with an in-memory writer
+        }
+    }
+
+    /**
+     * Writes the file to the external storage on the loader thread
+     */
+    void saveExternalFile(final String fileName, final byte[] data) {
+        mLoader.execute(new Runnable() {
+            public void run() {
+                File file = new File(Environment.getExternalStorageDirectory(), fileName);
+                try {
+                    FileOutputStream out = new FileOutputStream(file);
+                    try {
+                        out.write(data);
+                    } finally {
+                        out.close();
+                    }
+                    Log.i(TAG, "Saved " + file);
+                } catch (java.io.IOException e) {
+                    Log.e(TAG, "Failed to save " + file, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the saved session record on the loader thread and hands it over to the drawing thread
+     */
+    void loadReplay() {
+        mLoader.execute(new Runnable() {
+            public void run() {
+                File file = new File(Environment.getExternalStorageDirectory(), RECORD_FILE_NAME);
+                try {
+                    mPendingReplay = new GameReplay(readStream(new FileInputStream(file)));
+                    requestRender();
+                } catch (java.io.IOException e) {
+                    Log.e(TAG, "Failed to load " + file, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Plays the events of the replay, which are due by now, at their recorded pace
+     */
+    void updateReplay() {
+        GameReplay pendingReplay = mPendingReplay;
+        if (pendingReplay != null) {
+            mPendingReplay = null;
+            //  the flips before the first game have no board to land on
+            int event = pendingReplay.getFirstGameEvent();
+            //  a networked match goes on, the boards come from the server
+            if (event < pendingReplay.getNumEvents() && mLocalPlayer == -1) {
+                mReplay = pendingReplay;
+                mReplayEvent = event;
+                mReplayStartTime = SystemClock.uptimeMillis() - pendingReplay.getEventTime(event);
+            }
+        }
+        if (mReplay == null) {
+            return;
+        }
+        long time = SystemClock.uptimeMillis() - mReplayStartTime;
+        while (mReplayEvent < mReplay.getNumEvents() && mReplay.getEventTime(mReplayEvent) <= time) {
+            int event = mReplayEvent++;
+            if (mReplay.getEventType(event) == GameRecord.EVENT_NEW_GAME) {
+                startGame(mReplay.getNumCardsW(event), mReplay.getNumCardsH(event), mReplay.getSeed(event));
+            } else if (mReplay.getEventType(event) == GameRecord.EVENT_RESTORE) {
+                mReplay.apply(event, mBoard);
+                mRecord.addRestore(SystemClock.uptimeMillis(), mReplay.getSnapshot(event));
+                setupBoard();
+            } else if (mReplay.getCardIdx(event) < mBoard.getNumCells()) {
+                flipCard(mReplay.getCardIdx(event));
+            }
+        }
+        if (mReplayEvent == mReplay.getNumEvents()) {
+            Log.i(TAG, "Replay done");
+            mReplay = null;
+        }
+    }
+
+    /**
+     * Shows, hides or refreshes the statistics overlay, as requested from the menu
+     */
+    void updateStatsOverlay() {
+        boolean isShown = mIsStatsShown;
+        if (isShown == mStatsOverlay.isShown()
+                && (!isShown || mTrace.getNumTotalFrames() % STATS_REFRESH_FRAMES != 0)) {
+            return;
+        }
+        mStatsOverlay.setShown(isShown);
+        if (isShown) {
+            mStatsOverlay.refresh(mTrace, mDrawThread);
+        }
+        mDirtyRect.union(mStatsOverlay.getBounds());
+    }
+
+    /**
+     * Wakes up the drawing thread, if it is waiting for something to happen
+     */
+    void requestRender() {
+        DrawThread drawThread = mDrawThread;
+        if (drawThread != null) {
+            drawThread.requestRender();
+        }
+        GLMainView glView = mGLView;
+        if (glView != null) {
+            glView.requestRender();
+        }
+    }
+
+    /**
+     * Returns true if the game needs to be updated and drawn continuously
+     */
+    boolean isAnimating() {
+        //  a held deal of the match gets applied as soon as the result is over
+        return mNumActiveAnims > 0 || isDirty() || mReplay != null || !mMatchMessages.isEmpty();
+    }
+
+    /**
+     * Whether the won board of the match is still playing its last dissolve or the result caption
+     */
+    boolean isShowingMatchResult() {
+        return mLocalPlayer != -1 && mBoard.isGameOver()
+                && (mAnims.getNumActiveCardTracks() > 0 || mAnims.isPlaying(mAnims.getTextTrack()));
+    }
+
+    public void update(float dt) {
+        int numActiveAnims = 0;
+        //  backwards, as the tracks which are done drop out of the list
+        for (int i = mAnims.getNumActiveCardTracks() - 1; i >= 0; i--) {
+            int track = mAnims.getActiveCardTrack(i);
+            //  the cell is repainted also on the frame the animation ends,
+            //  so that the card gets back to its static look
+            invalidateCard(track);
+            if (mAnims.update(track, dt)) {
+                numActiveAnims++;
+            }
+        }
+        //  the caption area is repainted both where the text was and where it is now
+        mDirtyRect.union(mTextRect);
+        mTextRect.setEmpty();
+        int textTrack = mAnims.getTextTrack();
+        if (mAnims.isPlaying(textTrack) && mAnims.update(textTrack, dt)) {
+            mAnims.getTextBounds(mTextRect, mSurfaceW, mSurfaceH);
+            mDirtyRect.union(mTextRect);
+            numActiveAnims++;
+        }
+        mNumActiveAnims = numActiveAnims;
+        updateStatsOverlay();
+    }
+
+    /**
+     * Applies the input, queued by the UI thread since the last frame.
+     * Called from the drawing thread, which owns all the game state.
+     */
+    void processInput() {
+        if (mIsResourcesChanged) {
+            //  the parts, which could not be drawn yet, have to be repainted
+            mIsResourcesChanged = false;
+            invalidateAll();
+        }
+        if (mIsRecordSaveRequested) {
+            mIsRecordSaveRequested = false;
+            saveExternalFile(RECORD_FILE_NAME, mRecord.toByteArray());
+        }
+        updateReplay();
+        MatchProtocol.Message msg;
+        while ((msg = mMatchMessages.peek()) != null) {
+            if (msg.mType == MatchProtocol.MSG_DEAL && isShowingMatchResult()) {
+                //  the server deals right after the winning flip, the next board waits
+                //  until the result of the last one has been shown, as the tap does in a local game
+                break;
+            }
+            mMatchMessages.poll();
+            applyMatchMessage(msg);
+        }
+        while (mInputQueue.poll()) {
+            switch (mInputQueue.getType()) {
+                case InputQueue.EVENT_TOUCH:
+                    handleTouch(mInputQueue.getX(), mInputQueue.getY());
+                    break;
+                case InputQueue.EVENT_RESIZE:
+                    setSurfaceSize(mInputQueue.getX(), mInputQueue.getY());
+                    break;
+                case InputQueue.EVENT_SCROLL:
+                    setLayout(mLayout.scrolledBy(mInputQueue.getX(), mInputQueue.getY()));
+                    break;
+                case InputQueue.EVENT_ZOOM: {
+                    float zoom = mLayout.getZoom()*(mInputQueue.getX() > 0 ? ZOOM_STEP : 1.0f/ZOOM_STEP);
+                    setLayout(mLayout.zoomedTo(Math.min(zoom, MAX_ZOOM)));
+                    break;
+                }
+            }
+        }
+    }
+
+    void setSurfaceSize(int width, int height) {
+        mSurfaceW = width;
+        mSurfaceH = height;
+        updateLayout();
+    }
+
+    /**
+     * Queues the touch to be handled by the thread, which owns the game state, on the next frame.
+     * A board, which does not fit on the screen, gets dragged around, so there the tap only counts
+     * when the finger is lifted without moving; otherwise it counts right away.
+     */
+    void queueTouch(MotionEvent event) {
+        int x = (int) event.getX();
+        int y = (int) event.getY();
+        switch (event.getAction()) {
+            case MotionEvent.ACTION_DOWN:
+                mTouchDownX = mLastDragX = x;
+                mTouchDownY = mLastDragY = y;
+                mIsDragging = false;
+                mIsTouchQueued = !mLayout.isScrollable();
+                if (mIsTouchQueued) {
+                    mInputQueue.push(InputQueue.EVENT_TOUCH, x, y);
+                    requestRender();
+                }
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (mIsTouchQueued) {
+                    break;
+                }
+                if (!mIsDragging && Math.abs(x - mTouchDownX) + Math.abs(y - mTouchDownY) > mTouchSlop) {
+                    mIsDragging = true;
+                }
+                if (mIsDragging) {
+                    //  the board follows the finger, so the viewport moves the other way
+                    mInputQueue.push(InputQueue.EVENT_SCROLL, mLastDragX - x, mLastDragY - y);
+                    mLastDragX = x;
+                    mLastDragY = y;
+                    requestRender();
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+                if (!mIsTouchQueued && !mIsDragging) {
+                    mInputQueue.push(InputQueue.EVENT_TOUCH, mTouchDownX, mTouchDownY);
+                    requestRender();
+                }
+                break;
+        }
+    }
+
+    void handleTouch(int touchX, int touchY) {
+        if (mReplay != null) {
+            //  the replay drives the game until it is over
+            return;
+        }
+        if (mLocalPlayer != -1) {
+            //  the server deals the levels, and takes the flips on this player's turn only
+            int cardIdx = mLayout.getCardIdx(touchX, touchY);
+            if (cardIdx != -1 && !mIsFlipSent && mTurns.getCurrentPlayer() == mLocalPlayer
+                    && mBoard.getCard(cardIdx) < 0 && !mAnims.isPlaying(cardIdx)) {
+                sendFlip(cardIdx);
+            }
+            return;
+        }
+        if (mBoard.isGameOver()) {
+            startNextLevel();
+            return;
+        }
+        int cardIdx = mLayout.getCardIdx(touchX, touchY);
+        if (cardIdx == -1 || mAnims.isPlaying(cardIdx)) {
+            return;
+        }
+        flipCard(cardIdx);
+    }
+
+    void flipCard(int cardIdx) {
+        int cardFace = mBoard.getCard(cardIdx);
+        int result = mBoard.flip(cardIdx);
+        if (result == GameBoard.FLIP_IGNORED) {
+            return;
+        }
+        mRecord.addFlip(SystemClock.uptimeMillis(), cardIdx);
+        mBoardSnapshot = mBoard.saveState();
+        mTurns.onFlipped(result);
+
+        mAnims.startTrack(cardIdx);
+        mAnims.addCardStep(cardIdx, ANIM_FLIP, cardFace);
+        mAnims.addCardStep(cardIdx, ANIM_IDLE, cardFace);
+        int pairIdx = mBoard.getPrevFlippedCardIdx();
+        switch (result) {
+            case GameBoard.FLIP_MATCH:
+            case GameBoard.FLIP_WIN: {
+                //  found a match - dissolve the cards
+                int pairFace = -cardFace;
+                mAnims.startTrack(pairIdx);
+                mAnims.addCardStep(pairIdx, ANIM_IDLE, pairFace);
+                mAnims.addCardStep(pairIdx, ANIM_IDLE, pairFace);
+                mAnims.addCardStep(pairIdx, ANIM_DISSOLVE, pairFace);
+                mAnims.addCardStep(cardIdx, ANIM_DISSOLVE, cardFace);
+
+                //  the caption is skipped if the cards info is not loaded yet
+                CardInfoTable cardInfo = mCardInfo;
+                String caption = (cardInfo != null) ? cardInfo.getName(Math.abs(cardFace) - 1) : null;
+                if (caption != null) {
+                    mAnims.startTrack(mAnims.getTextTrack());
+                    mAnims.addTextStep(caption, TEXT_COLOR, 0, mSurfaceH, 2.0f);
+                }
+
+                if (result == GameBoard.FLIP_WIN) {
+                    //  the replayed games are in the scores already,
+                    //  and the games of several players do not go there at all
+                    String resultCaption = null;
+                    if (mTurns.getNumPlayers() > 1) {
+                        resultCaption = getWinnerCaption();
+                    } else if (mReplay == null && mLocalPlayer == -1) {
+                        resultCaption = addScore();
+                    }
+                    if (resultCaption != null) {
+                        if (caption == null) {
+                            mAnims.startTrack(mAnims.getTextTrack());
+                        }
+                        mAnims.addTextStep(resultCaption, TEXT_COLOR, 0, mSurfaceH, 3.0f);
+                    }
+                }
+                break;
+            }
+            case GameBoard.FLIP_MISS: {
+                //  the second flipped card does not match - flip both cards back
+                int pairFace = -mBoard.getCard(pairIdx);
+                mAnims.startTrack(pairIdx);
+                mAnims.addCardStep(pairIdx, ANIM_IDLE, pairFace);
+                mAnims.addCardStep(pairIdx, ANIM_IDLE, pairFace);
+                mAnims.addCardStep(pairIdx, ANIM_FLIP, pairFace);
+                mAnims.addCardStep(cardIdx, ANIM_FLIP, -cardFace);
+
+                if (mTurns.getNumPlayers() > 1) {
+                    //  the misses of several players do not tell much, whose turn it is does
+                    showTurn();
+                    break;
+                }
+                //  spawn the misses counter text animation
+                int numMisses = mBoard.getNumMisses();
+                String strNumMisses = Integer.toString(numMisses) + (numMisses == 1 ? " miss" : " misses");
+                //  set the "miss" text color according to the "miss rate severity"
+                //  TODO: less ugly color palette
+                //  (the thresholds are simulated for the board size, see MissThresholds)
+                int missColor;
+                int numPairs = mBoard.getNumPairs();
+                if (numMisses > MissThresholds.getBadMisses(numPairs)) {
+                    missColor = 0xFFFF2222;
+                } else if (numMisses > MissThresholds.getGoodMisses(numPairs)) {
+                    missColor = 0xFFFFFF22;
+                } else {
+                    missColor = 0xFF22FF22;
+                }
+                mAnims.startTrack(mAnims.getTextTrack());
+                mAnims.addTextStep(strNumMisses, missColor, 0, mSurfaceH, 2.0f);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Announces the player to flip next
+     */
+    void showTurn() {
+        int player = mTurns.getCurrentPlayer();
+        String caption = (player == mLocalPlayer) ? "Your turn" : "Player " + (player + 1);
+        mAnims.startTrack(mAnims.getTextTrack());
+        mAnims.addTextStep(caption, TEXT_COLOR, 0, mSurfaceH, 2.0f);
+    }
+
+    /**
+     * The caption announcing the winner of the board and the pairs of all the players
+     */
+    String getWinnerCaption() {
+        StringBuilder scores = new StringBuilder();
+        for (int i = 0; i < mTurns.getNumPlayers(); i++) {
+            scores.append(i == 0 ? " " : ":").append(mTurns.getScore(i));
+        }
+        int leader = mTurns.getLeader();
+        if (leader == -1) {
+            return "Draw" + scores;
+        }
+        return (leader == mLocalPlayer ? "You win" : "Player " + (leader + 1) + " wins") + scores;
+    }
+
+    /**
+     * Joins a networked match on a thread of its own, or leaves the one being played
+     */
+    void toggleMatch() {
+        if (mIsMatchThreadRunning) {
+            //  the reading thread ends and hands the game back to the local players,
+            //  a connection still being made gets closed by the match thread once it is up
+            mIsMatchLeaveRequested = true;
+            MatchClient client = mMatchClient;
+            if (client != null) {
+                client.close();
+            }
+            return;
+        }
+        mIsMatchThreadRunning = true;
+        mIsMatchLeaveRequested = false;
+        final String address = getString(R.string.match_server);
+        new Thread(new Runnable() {
+            public void run() {
+                playMatch(address);
+            }
+        }, "match").start();
+    }
+
+    /**
+     * Connects to the server and passes its messages over to the drawing thread until the match ends
+     */
+    void playMatch(String address) {
+        MatchClient client = null;
+        try {
+            client = new MatchClient(address);
+            mMatchClient = client;
+            if (mIsMatchLeaveRequested) {
+                return;
+            }
+            client.join(NETWORK_NUM_PLAYERS);
+            while (true) {
+                MatchProtocol.Message msg = new MatchProtocol.Message();
+                if (!client.read(msg)) {
+                    break;
+                }
+                mMatchMessages.offer(msg);
+                requestRender();
+            }
+        } catch (java.io.IOException e) {
+            Log.e(TAG, "The match with " + address + " ended", e);
+        } finally {
+            if (client != null) {
+                client.close();
+            }
+            mMatchClient = null;
+            MatchProtocol.Message left = new MatchProtocol.Message();
+            left.mType = MatchProtocol.MSG_LEFT;
+            mMatchMessages.offer(left);
+            requestRender();
+            mIsMatchThreadRunning = false;
+        }
+    }
+
+    /**
+     * Disconnects from the server, the reading thread then hands the game back to the local players
+     */
+    void leaveMatch(String reason) {
+        Log.e(TAG, reason);
+        MatchClient client = mMatchClient;
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * Sends the flip of this player, the board changes once the server passes it back
+     */
+    void sendFlip(int cardIdx) {
+        MatchClient client = mMatchClient;
+        if (client == null) {
+            return;
+        }
+        try {
+            //  a few bytes, which go to the socket buffer without waiting for the network
+            client.sendFlip(mLocalPlayer, cardIdx);
+            mIsFlipSent = true;
+        } catch (java.io.IOException e) {
+            //  the reading thread finds out as well, and ends the match
+            client.close();
+        }
+    }
+
+    /**
+     * Applies the message of the server, a message the game can not apply ends the match
+     */
+    void applyMatchMessage(MatchProtocol.Message msg) {
+        switch (msg.mType) {
+            case MatchProtocol.MSG_DEAL:
+                if (!GameBoard.isValidSize(msg.mNumCardsW, msg.mNumCardsH)
+                        || msg.mNumPlayers < 1 || msg.mNumPlayers > PlayerTurns.MAX_PLAYERS
+                        || msg.mPlayer < 0 || msg.mPlayer >= msg.mNumPlayers) {
+                    leaveMatch("Bad deal " + msg.mNumCardsW + "x" + msg.mNumCardsH + " for player "
+                            + msg.mPlayer + " of " + msg.mNumPlayers);
+                    break;
+                }
+                //  the networked match takes over from the replay or the local game
+                mReplay = null;
+                mLocalPlayer = msg.mPlayer;
+                mNumMatchPlayers = msg.mNumPlayers;
+                startGame(msg.mNumCardsW, msg.mNumCardsH, msg.mSeed);
+                break;
+            case MatchProtocol.MSG_FLIP:
+                if (mLocalPlayer == -1) {
+                    break;
+                }
+                if (msg.mCardIdx < 0 || msg.mCardIdx >= mBoard.getNumCells()
+                        || msg.mPlayer != mTurns.getCurrentPlayer()) {
+                    leaveMatch("Bad flip of card " + msg.mCardIdx + " by player " + msg.mPlayer);
+                    break;
+                }
+                mIsFlipSent = false;
+                flipCard(msg.mCardIdx);
+                break;
+            case MatchProtocol.MSG_REJECT:
+                mIsFlipSent = false;
+                break;
+            case MatchProtocol.MSG_LEFT: {
+                //  the board stays, from the next one on it is the local game again
+                String caption = (mLocalPlayer != -1) ? "Match over" : "No match";
+                mLocalPlayer = -1;
+                mAnims.startTrack(mAnims.getTextTrack());
+                mAnims.addTextStep(caption, TEXT_COLOR, 0, mSurfaceH, 2.0f);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Records the won game in the high scores, returns the caption announcing the result
+     */
+    String addScore() {
+        int numCardsW = mBoard.getNumCardsW();
+        int numCardsH = mBoard.getNumCardsH();
+        int[] faces = new int[mBoard.getNumFacesInPlay()];
+        for (int i = 0; i < faces.length; i++) {
+            faces[i] = mBoard.getFaceInPlay(i);
+        }
+        ScoreStore.Score score = new ScoreStore.Score(numCardsW, numCardsH, mBoard.getNumMisses(),
+                SystemClock.uptimeMillis() - mGameStartTime, System.currentTimeMillis(), faces);
+        int place = mScores.add(score);
+        mLoader.execute(mFlushScoresTask);
+
+        String boardSize = numCardsW + "x" + numCardsH;
+        if (place == 1) {
+            return "Best game on " + boardSize + "!";
+        } else if (place > 0) {
+            return "#" + place + " on " + boardSize;
+        }
+        ScoreStore.BoardStats stats = mScores.getStats(numCardsW, numCardsH);
+        return boardSize + " average: " + stats.mTotalMisses/stats.mNumGames + " misses";
+    }
+
+    public class MainView extends SurfaceView implements SurfaceHolder.Callback {
+        public MainView(Context context, AttributeSet attrs) {
+            super(context, attrs);
+            getHolder().addCallback(this);
+        }
+
+        private final CanvasRenderer mRenderer = new CanvasRenderer();
+
+        /**
+         * Repaints the parts of the screen which intersect mDirtyRect
+         */
+        @Override
+        public void onDraw(Canvas canvas) {
+            mRenderer.setCanvas(canvas);
+            drawScene(mRenderer, mDirtyRect);
+            mRenderer.setCanvas(null);
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event) {
+            queueTouch(event);
+            return true;
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            mInputQueue.push(InputQueue.EVENT_RESIZE, width, height);
+            requestRender();
+        }
+
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+            startDrawingThread();
+        }
+
         @Override
-        public void draw(Canvas canvas) {
-            float textSize = mStartTextSize + (mEndTextSize - mStartTextSize)*mCurTime/mDuration;
-            float ratio = mCurTime/mDuration;
-            //  quadratic function - decay faster towards the end
-            int alpha = (int) (255.0f*(1.0f - ratio*ratio));
-            int x = canvas.getWidth()/2;
-            int y = (int)(canvas.getHeight()+ textSize)/2;
-
-            mPaint.setAlpha(alpha);
-            mPaint.setTextSize(textSize);
-            canvas.drawText(mCaption, x, y, mPaint);
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            stopDrawingThread();
+        }
+    }
 
-            mStrokePaint.setAlpha(alpha);
-            mStrokePaint.setTextSize(textSize);
-            canvas.drawText(mCaption, x, y, mStrokePaint);
+    /**
+     * On-screen frame statistics: the percentiles of the game loop phases over the traced frames.
+     * The text gets rendered into one of two bitmaps in turn, so that a renderer, which caches
+     * the uploaded bitmap, sees the change.
+     */
+    class StatsOverlay {
+        private static final int TEXT_SIZE = 12;
+        private static final int LINE_H = TEXT_SIZE + 2;
+        private static final int MARGIN = 4;
+        private static final int WIDTH = 300;
+        private static final int NUM_LINES = FrameTrace.NUM_PHASES + 3;
+
+        private final Bitmap[] mBitmaps = new Bitmap[2];
+        private int mCurBitmap = 0;
+        private boolean mIsShown = false;
+        private final Rect mBounds = new Rect(MARGIN, MARGIN, MARGIN + WIDTH, MARGIN + NUM_LINES*LINE_H + MARGIN);
+        private final RectF mRect = new RectF(mBounds);
+
+        private final Canvas mCanvas = new Canvas();
+        private final Paint mPaint = new Paint();
+        private final char[] mLine = new char[80];
+
+        public StatsOverlay() {
+            mPaint.setColor(0xFFFFFFFF);
+            mPaint.setAntiAlias(true);
+            mPaint.setTextSize(TEXT_SIZE);
+            mPaint.setTypeface(Typeface.MONOSPACE);
+        }
+
+        public boolean isShown() {
+            return mIsShown;
+        }
+
+        public void setShown(boolean isShown) {
+            mIsShown = isShown;
+        }
+
+        public Rect getBounds() {
+            return mBounds;
+        }
+
+        public RectF getRect() {
+            return mRect;
+        }
+
+        public Bitmap getBitmap() {
+            return mBitmaps[mCurBitmap];
+        }
+
+        /**
+         * Renders the current statistics of the trace, and the pacing of the drawing thread (if any)
+         */
+        public void refresh(FrameTrace trace, DrawThread drawThread) {
+            mCurBitmap = 1 - mCurBitmap;
+            if (mBitmaps[mCurBitmap] == null) {
+                mBitmaps[mCurBitmap] = Bitmap.createBitmap(mBounds.width(), mBounds.height(), Bitmap.Config.ARGB_8888);
+            }
+            Bitmap bitmap = mBitmaps[mCurBitmap];
+            bitmap.eraseColor(0xA0000000);
+            mCanvas.setBitmap(bitmap);
+            float y = MARGIN + TEXT_SIZE;
+            for (int phase = 0; phase < FrameTrace.NUM_PHASES; phase++) {
+                int len = FrameTrace.appendString(mLine, 0, FrameTrace.getPhaseName(phase));
+                len = FrameTrace.appendString(mLine, len, " 50%:");
+                len = FrameTrace.appendMillis(mLine, len, trace.getPercentile(phase, 50));
+                len = FrameTrace.appendString(mLine, len, " 90%:");
+                len = FrameTrace.appendMillis(mLine, len, trace.getPercentile(phase, 90));
+                len = FrameTrace.appendString(mLine, len, " 99%:");
+                len = FrameTrace.appendMillis(mLine, len, trace.getPercentile(phase, 99));
+                len = FrameTrace.appendString(mLine, len, " ms");
+                mCanvas.drawText(mLine, 0, len, MARGIN, y, mPaint);
+                y += LINE_H;
+            }
+            int len = FrameTrace.appendString(mLine, 0, "frames:");
+            len = FrameTrace.appendInt(mLine, len, trace.getNumFrames());
+            len = FrameTrace.appendString(mLine, len, " gcs:");
+            len = FrameTrace.appendInt(mLine, len, trace.getNumGcs());
+            len = FrameTrace.appendString(mLine, len, " anims:");
+            len = FrameTrace.appendInt(mLine, len, trace.getNumAnims());
+            mCanvas.drawText(mLine, 0, len, MARGIN, y, mPaint);
+            if (drawThread != null) {
+                y += LINE_H;
+                len = FrameTrace.appendString(mLine, 0, drawThread.isContinuous() ? "continuous" : "on demand");
+                len = FrameTrace.appendString(mLine, len, " avg:");
+                len = FrameTrace.appendMillis(mLine, len, drawThread.getAverageFrameTime());
+                len = FrameTrace.appendString(mLine, len, " ms dropped:");
+                len = FrameTrace.appendInt(mLine, len, drawThread.getNumDroppedFrames());
+                len = FrameTrace.appendString(mLine, len, "/");
+                len = FrameTrace.appendInt(mLine, len, drawThread.getNumFrames());
+                mCanvas.drawText(mLine, 0, len, MARGIN, y, mPaint);
+                if (drawThread.isCountingAllocs()) {
+                    y += LINE_H;
+                    len = FrameTrace.appendString(mLine, 0, "allocs frame:");
+                    len = FrameTrace.appendInt(mLine, len, drawThread.getNumFrameAllocs());
+                    len = FrameTrace.appendString(mLine, len, " total:");
+                    len = FrameTrace.appendInt(mLine, len, drawThread.getNumTotalAllocs());
+                    mCanvas.drawText(mLine, 0, len, MARGIN, y, mPaint);
+                }
+            }
+        }
+    }
+
+    /**
+     * The drawing backend, the scene gets drawn through by drawScene()
+     */
+    interface BoardRenderer {
+        void drawBackground(Bitmap bgBitmap);
+
+        /**
+         * Draws the card (face down if cardID is negative), squeezed horizontally and faded out
+         */
+        void drawCard(int cardIdx, int cardID, float cardScale, float alpha);
+
+        void drawCaption(Bitmap caption, RectF rect, float alpha);
+
+        void drawProgress(float progress);
+    }
+
+    /**
+     * Draws on the software canvas of the surface, one bitmap blit per sprite
+     */
+    class CanvasRenderer implements BoardRenderer {
+        private Canvas mCanvas;
+        private final Paint mAlphaPaint = new Paint();
+        private final Paint mCaptionPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        public void setCanvas(Canvas canvas) {
+            mCanvas = canvas;
+        }
+
+        public void drawBackground(Bitmap bgBitmap) {
+            if (bgBitmap != null) {
+                mSrcRect.set(0, 0, bgBitmap.getWidth(), bgBitmap.getHeight());
+                mDstRect.set(0, 0, mSurfaceW, mSurfaceH);
+                mCanvas.drawBitmap(bgBitmap, mSrcRect, mDstRect, null);
+            } else {
+                mCanvas.drawColor(PLACEHOLDER_BG_COLOR);
+            }
+        }
+
+        public void drawCard(int cardIdx, int cardID, float cardScale, float alpha) {
+            if (cardID == 0) {
+                return;
+            }
+            Paint paint = null;
+            if (alpha < 1.0f) {
+                mAlphaPaint.setAlpha((int) (255.0f*alpha));
+                paint = mAlphaPaint;
+            }
+
+            getCardRect(cardIdx, cardScale, mDstRect);
+            if (cardID > 0) {
+                Bitmap face = mSpriteCache.getCardFace(cardID);
+                if (face != null) {
+                    drawBitmap(face, mDstRect, paint);
+                } else if (mCardsFg.getCell(cardID - 1) != null) {
+                    drawSprite(mCardsBg, 0, mDstRect, paint);
+                    drawSprite(mCardsFg, cardID - 1, mDstRect, paint);
+                } else {
+                    //  the face is not loaded yet
+                    drawSprite(mCardsBg, 1, mDstRect, paint);
+                }
+            } else {
+                drawSprite(mCardsBg, 1, mDstRect, paint);
+            }
+        }
+
+        public void drawCaption(Bitmap caption, RectF rect, float alpha) {
+            mCaptionPaint.setAlpha((int) (255.0f*alpha));
+            mCanvas.drawBitmap(caption, null, rect, mCaptionPaint);
+        }
+
+        public void drawProgress(float progress) {
+            mCanvas.drawRect(0, mSurfaceH - PROGRESS_BAR_H, mSurfaceW*progress, mSurfaceH, mProgressPaint);
+        }
+
+        private void drawSprite(SpriteAtlas atlas, int spriteID, Rect dstRect, Paint paint) {
+            Bitmap sprite = mSpriteCache.get(atlas, spriteID);
+            if (sprite != null) {
+                drawBitmap(sprite, dstRect, paint);
+            }
+        }
+
+        private void drawBitmap(Bitmap bitmap, Rect dstRect, Paint paint) {
+            if (bitmap.getWidth() == dstRect.width() && bitmap.getHeight() == dstRect.height()) {
+                //  plain blit, no scaling
+                mCanvas.drawBitmap(bitmap, dstRect.left, dstRect.top, paint);
+            } else {
+                mCanvas.drawBitmap(bitmap, null, dstRect, paint);
+            }
+        }
+    }
+
+    /**
+     * The OpenGL ES view. The game runs on its rendering thread, which renders on demand
+     * and keeps rendering continuously while there is something animating.
+     */
+    public class GLMainView extends GLSurfaceView {
+        public GLMainView(Context context) {
+            super(context);
+            setRenderer(new GLRenderer());
+            setRenderMode(RENDERMODE_WHEN_DIRTY);
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event) {
+            queueTouch(event);
+            return true;
+        }
+    }
+
+    /**
+     * Draws through OpenGL ES 1.0 (the only version available on Android 1.6).
+     * Both card atlases live in one texture, so all the cards go out in a single draw call,
+     * with the flip squeeze applied to the quad positions and the dissolve as per-vertex alpha.
+     * The whole frame is redrawn every time, as the GL surface keeps no previous frame contents.
+     */
+    class GLRenderer implements BoardRenderer, GLSurfaceView.Renderer {
+        private GL10 mGL;
+        private final QuadBatch mCardBatch = new QuadBatch(64);
+        private final QuadBatch mOverlayBatch = new QuadBatch(1);
+        private final Rect mScreenRect = new Rect();
+        private final Rect mQuadRect = new Rect();
+        private final int[] mTextureIDs = new int[1];
+
+        //  texture IDs and the bitmaps already in them
+        private int mSpriteTexture;
+        private Bitmap[] mUploadedFgCells;
+        private Bitmap[] mUploadedBgCells;
+        private int mBgTexture;
+        private Bitmap mUploadedBg;
+        private int mCaptionTexture;
+        private int mCaptionTextureW;
+        private int mCaptionTextureH;
+        private Bitmap mUploadedCaption;
+
+        private long mLastTime;
+        private boolean mIsIdle = true;
+
+        public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+            //  the textures are gone together with the old context
+            mSpriteTexture = 0;
+            mUploadedFgCells = null;
+            mUploadedBgCells = null;
+            mBgTexture = 0;
+            mUploadedBg = null;
+            mCaptionTexture = 0;
+            mUploadedCaption = null;
+
+            gl.glDisable(GL10.GL_DITHER);
+            gl.glDisable(GL10.GL_DEPTH_TEST);
+            gl.glEnable(GL10.GL_TEXTURE_2D);
+            gl.glTexEnvx(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE, GL10.GL_MODULATE);
+            //  the bitmaps have premultiplied alpha
+            gl.glEnable(GL10.GL_BLEND);
+            gl.glBlendFunc(GL10.GL_ONE, GL10.GL_ONE_MINUS_SRC_ALPHA);
+            gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
+            gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+            gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
+        }
+
+        public void onSurfaceChanged(GL10 gl, int width, int height) {
+            gl.glViewport(0, 0, width, height);
+            gl.glMatrixMode(GL10.GL_PROJECTION);
+            gl.glLoadIdentity();
+            //  pixel coordinates, y pointing down as on the canvas
+            gl.glOrthof(0, width, height, 0, -1, 1);
+            gl.glMatrixMode(GL10.GL_MODELVIEW);
+            gl.glLoadIdentity();
+            //  the rendering thread owns the game state, so the size gets applied right away
+            setSurfaceSize(width, height);
+        }
+
+        public void onDrawFrame(GL10 gl) {
+            final long time = SystemClock.uptimeMillis();
+            //  the idle time does not count as animation time
+            final float timeDelta = mIsIdle ? 0.0f : ((float)(time - mLastTime)) * 0.001f;
+            mLastTime = time;
+            mTrace.beginFrame();
+            final long startTime = System.nanoTime();
+            processInput();
+            final long inputTime = System.nanoTime();
+            mTrace.setPhase(FrameTrace.PHASE_INPUT, startTime, inputTime);
+            update(timeDelta);
+            final long updateTime = System.nanoTime();
+            mTrace.setPhase(FrameTrace.PHASE_UPDATE, inputTime, updateTime);
+
+            mGL = gl;
+            if (mSpriteTexture == 0) {
+                mSpriteTexture = createTexture(gl, GL_SPRITE_TEXTURE_SIZE, GL_SPRITE_TEXTURE_SIZE,
+                        GL10.GL_RGBA, GL10.GL_UNSIGNED_BYTE);
+            }
+            mUploadedFgCells = uploadSprites(gl, mCardsFg, 0, mUploadedFgCells);
+            mUploadedBgCells = uploadSprites(gl, mCardsBg, GL_CARD_BACKS_FIRST_SLOT, mUploadedBgCells);
+            mScreenRect.set(0, 0, mSurfaceW, mSurfaceH);
+            drawScene(this, mScreenRect);
+            drawBatch(gl, mCardBatch, mSpriteTexture);
+            mGL = null;
+            mTrace.setPhase(FrameTrace.PHASE_DRAW, updateTime, System.nanoTime());
+            endTraceFrame(startTime, 0);
+
+            mDirtyRect.setEmpty();
+            mIsFullRedraw = false;
+            mIsIdle = !isAnimating();
+            if (!mIsIdle) {
+                requestRender();
+            }
+        }
+
+        public void drawBackground(Bitmap bgBitmap) {
+            GL10 gl = mGL;
+            if (bgBitmap == null) {
+                gl.glClearColor(Color.red(PLACEHOLDER_BG_COLOR)/255.0f, Color.green(PLACEHOLDER_BG_COLOR)/255.0f,
+                        Color.blue(PLACEHOLDER_BG_COLOR)/255.0f, 1.0f);
+                gl.glClear(GL10.GL_COLOR_BUFFER_BIT);
+                return;
+            }
+            int texW = getPowerOfTwo(bgBitmap.getWidth());
+            int texH = getPowerOfTwo(bgBitmap.getHeight());
+            if (bgBitmap != mUploadedBg) {
+                deleteTexture(gl, mBgTexture);
+                mBgTexture = createTexture(gl, texW, texH, GL10.GL_RGB, GL10.GL_UNSIGNED_SHORT_5_6_5);
+                GLUtils.texSubImage2D(GL10.GL_TEXTURE_2D, 0, 0, 0, bgBitmap);
+                mUploadedBg = bgBitmap;
+            }
+            mOverlayBatch.add(0, 0, mSurfaceW, mSurfaceH,
+                    0, 0, bgBitmap.getWidth()/(float) texW, bgBitmap.getHeight()/(float) texH, 1.0f);
+            drawBatch(gl, mOverlayBatch, mBgTexture);
+        }
+
+        public void drawCard(int cardIdx, int cardID, float cardScale, float alpha) {
+            if (cardID == 0) {
+                return;
+            }
+            getCardRect(cardIdx, cardScale, mQuadRect);
+            if (cardID > 0 && mUploadedFgCells != null && mUploadedFgCells[cardID - 1] != null) {
+                addSprite(mUploadedBgCells, GL_CARD_BACKS_FIRST_SLOT, 0, mQuadRect, alpha);
+                addSprite(mUploadedFgCells, 0, cardID - 1, mQuadRect, alpha);
+            } else {
+                //  face down, or the face is not loaded yet
+                addSprite(mUploadedBgCells, GL_CARD_BACKS_FIRST_SLOT, 1, mQuadRect, alpha);
+            }
+        }
+
+        public void drawCaption(Bitmap caption, RectF rect, float alpha) {
+            GL10 gl = mGL;
+            //  the cards go first, to keep the drawing order
+            drawBatch(gl, mCardBatch, mSpriteTexture);
+            if (caption != mUploadedCaption) {
+                int texW = getPowerOfTwo(caption.getWidth());
+                int texH = getPowerOfTwo(caption.getHeight());
+                if (mCaptionTexture == 0 || texW > mCaptionTextureW || texH > mCaptionTextureH) {
+                    deleteTexture(gl, mCaptionTexture);
+                    mCaptionTextureW = Math.max(texW, mCaptionTextureW);
+                    mCaptionTextureH = Math.max(texH, mCaptionTextureH);
+                    mCaptionTexture = createTexture(gl, mCaptionTextureW, mCaptionTextureH,
+                            GL10.GL_RGBA, GL10.GL_UNSIGNED_BYTE);
+                } else {
+                    gl.glBindTexture(GL10.GL_TEXTURE_2D, mCaptionTexture);
+                }
+                GLUtils.texSubImage2D(GL10.GL_TEXTURE_2D, 0, 0, 0, caption);
+                mUploadedCaption = caption;
+            }
+            mOverlayBatch.add(rect.left, rect.top, rect.right, rect.bottom, 0, 0,
+                    caption.getWidth()/(float) mCaptionTextureW, caption.getHeight()/(float) mCaptionTextureH, alpha);
+            drawBatch(gl, mOverlayBatch, mCaptionTexture);
+        }
+
+        public void drawProgress(float progress) {
+            GL10 gl = mGL;
+            drawBatch(gl, mCardBatch, mSpriteTexture);
+            gl.glDisable(GL10.GL_TEXTURE_2D);
+            gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
+            gl.glColor4f(Color.red(TEXT_COLOR)/255.0f, Color.green(TEXT_COLOR)/255.0f,
+                    Color.blue(TEXT_COLOR)/255.0f, 1.0f);
+            mOverlayBatch.add(0, mSurfaceH - PROGRESS_BAR_H, mSurfaceW*progress, mSurfaceH, 0, 0, 0, 0, 1.0f);
+            drawBatch(gl, mOverlayBatch, 0);
+            gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
+            gl.glEnable(GL10.GL_TEXTURE_2D);
+        }
+
+        /**
+         * Copies the sprites, which are not in the texture yet, into their slots.
+         * Returns the sprites the texture holds now.
+         */
+        private Bitmap[] uploadSprites(GL10 gl, SpriteAtlas atlas, int firstSlot, Bitmap[] uploadedCells) {
+            Bitmap[] cells = atlas.getCells();
+            if (cells == uploadedCells || cells == null) {
+                return uploadedCells;
+            }
+            gl.glBindTexture(GL10.GL_TEXTURE_2D, mSpriteTexture);
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] != null && (uploadedCells == null || uploadedCells[i] != cells[i])) {
+                    int slot = firstSlot + i;
+                    GLUtils.texSubImage2D(GL10.GL_TEXTURE_2D, 0, (slot % GL_SPRITE_SLOTS_IN_ROW)*CARD_W,
+                            (slot / GL_SPRITE_SLOTS_IN_ROW)*CARD_H, cells[i]);
+                }
+            }
+            return cells;
+        }
+
+        private void addSprite(Bitmap[] cells, int firstSlot, int spriteID, Rect rect, float alpha) {
+            Bitmap cell = (cells != null) ? cells[spriteID] : null;
+            if (cell == null) {
+                return;
+            }
+            //  the downsampled sprites only cover the top left part of their slots
+            int slot = firstSlot + spriteID;
+            float u = (slot % GL_SPRITE_SLOTS_IN_ROW)*CARD_W/(float) GL_SPRITE_TEXTURE_SIZE;
+            float v = (slot / GL_SPRITE_SLOTS_IN_ROW)*CARD_H/(float) GL_SPRITE_TEXTURE_SIZE;
+            mCardBatch.add(rect.left, rect.top, rect.right, rect.bottom, u, v,
+                    u + cell.getWidth()/(float) GL_SPRITE_TEXTURE_SIZE,
+                    v + cell.getHeight()/(float) GL_SPRITE_TEXTURE_SIZE, alpha);
+        }
+
+        private void drawBatch(GL10 gl, QuadBatch batch, int texture) {
+            if (batch.getNumQuads() == 0) {
+                return;
+            }
+            batch.flush();
+            gl.glBindTexture(GL10.GL_TEXTURE_2D, texture);
+            FloatBuffer vertices = batch.getVertexBuffer();
+            gl.glVertexPointer(2, GL10.GL_FLOAT, QuadBatch.VERTEX_STRIDE, vertices);
+            vertices.position(2);
+            gl.glTexCoordPointer(2, GL10.GL_FLOAT, QuadBatch.VERTEX_STRIDE, vertices);
+            vertices.position(0);
+            gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, batch.getColorBuffer());
+            gl.glDrawElements(GL10.GL_TRIANGLES, batch.getNumIndices(), GL10.GL_UNSIGNED_SHORT,
+                    batch.getIndexBuffer());
+            batch.clear();
+        }
+
+        private int createTexture(GL10 gl, int width, int height, int format, int type) {
+            gl.glGenTextures(1, mTextureIDs, 0);
+            int texture = mTextureIDs[0];
+            gl.glBindTexture(GL10.GL_TEXTURE_2D, texture);
+            gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_LINEAR);
+            gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR);
+            gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S, GL10.GL_CLAMP_TO_EDGE);
+            gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T, GL10.GL_CLAMP_TO_EDGE);
+            //  GL ES 1.0 needs power of two textures, the bitmaps get copied into them
+            gl.glTexImage2D(GL10.GL_TEXTURE_2D, 0, format, width, height, 0, format, type, null);
+            return texture;
+        }
+
+        private void deleteTexture(GL10 gl, int texture) {
+            if (texture != 0) {
+                mTextureIDs[0] = texture;
+                gl.glDeleteTextures(1, mTextureIDs, 0);
+            }
+        }
+
+        private int getPowerOfTwo(int size) {
+            int pot = 1;
+            while (pot < size) {
+                pot *= 2;
+            }
+            return pot;
+        }
+    }
+
+    /**
+     * The game loop, paced to the target frame rate.
+     * In the on-demand mode the thread sleeps while there is nothing to animate,
+     * until it gets woken up by requestRender().
+     */
+    class DrawThread extends Thread {
+        public static final int MODE_CONTINUOUS = 0;
+        public static final int MODE_ON_DEMAND = 1;
+
+        private SurfaceHolder mSurfaceHolder;
+        private volatile boolean mIsRunning = false;
+        private long mLastTime;
+
+        private volatile int mMode = MODE_ON_DEMAND;
+        private volatile long mTargetFrameNanos = 1000000000L/TARGET_FPS;
+
+        private final Object mWakeLock = new Object();
+        private boolean mHasWork = false;
+
+        //  frame statistics, in nanoseconds
+        private volatile long mFrameTime = 0;
+        private volatile long mAvgFrameTime = 0;
+        private volatile int mNumFrames = 0;
+        private volatile int mNumDroppedFrames = 0;
+
+        private boolean mIsFirstFrameLogged = false;
+        private boolean mIsCompleteFrameLogged = false;
+
+        //  allocation counting for update() and onDraw(), which should not allocate in steady state
+        private volatile boolean mIsCountingAllocs = false;
+        private boolean mIsAllocCountingStarted = false;
+        private volatile int mNumFrameAllocs = 0;
+        private volatile int mNumTotalAllocs = 0;
+
+        public DrawThread(SurfaceHolder surfaceHolder) {
+            mSurfaceHolder = surfaceHolder;
+        }
+
+        public void setRunning(boolean isRunning) {
+            mIsRunning = isRunning;
+            requestRender();
+        }
+
+        public void setMode(int mode) {
+            mMode = mode;
+            requestRender();
+        }
+
+        public boolean isContinuous() {
+            return mMode == MODE_CONTINUOUS;
+        }
+
+        public void setTargetFPS(int fps) {
+            mTargetFrameNanos = 1000000000L/fps;
+        }
+
+        /**
+         * Enables the allocation counting (slows down the VM, so only meant for debugging)
+         */
+        public void setAllocCounting(boolean isCountingAllocs) {
+            mIsCountingAllocs = isCountingAllocs;
+            requestRender();
+        }
+
+        public boolean isCountingAllocs() {
+            return mIsAllocCountingStarted;
+        }
+
+        /** Number of objects allocated by update() and onDraw() on the last frame */
+        public int getNumFrameAllocs() {
+            return mNumFrameAllocs;
+        }
+
+        /** Number of objects allocated by update() and onDraw() since the counting was enabled */
+        public int getNumTotalAllocs() {
+            return mNumTotalAllocs;
+        }
+
+        public void requestRender() {
+            synchronized (mWakeLock) {
+                mHasWork = true;
+                mWakeLock.notify();
+            }
+        }
+
+        /** Duration of the last frame, in nanoseconds */
+        public long getFrameTime() {
+            return mFrameTime;
+        }
+
+        /** Exponential moving average of the frame duration, in nanoseconds */
+        public long getAverageFrameTime() {
+            return mAvgFrameTime;
+        }
+
+        public int getNumFrames() {
+            return mNumFrames;
+        }
+
+        /** Number of frame slots missed, because a frame took longer than the target time */
+        public int getNumDroppedFrames() {
+            return mNumDroppedFrames;
+        }
+
+        private void waitForWork() {
+            synchronized (mWakeLock) {
+                while (!mHasWork && mIsRunning) {
+                    try {
+                        mWakeLock.wait();
+                    } catch (InterruptedException e) {
+                        // keep waiting
+                    }
+                }
+                mHasWork = false;
+            }
+        }
+
+        private void logFrameTime(boolean isComplete) {
+            if (!mIsFirstFrameLogged) {
+                mIsFirstFrameLogged = true;
+                Log.i(TAG, "First frame in " + (SystemClock.uptimeMillis() - mCreateTime) + " ms");
+            }
+            if (isComplete && !mIsCompleteFrameLogged) {
+                mIsCompleteFrameLogged = true;
+                Log.i(TAG, "First fully loaded frame in " + (SystemClock.uptimeMillis() - mCreateTime) + " ms");
+            }
+        }
+
+        private void drawFrame() {
+            //  whether the frame is drawn with all the resources in place
+            boolean isComplete = (mLoadedStages == ALL_STAGES);
+            Canvas c = null;
+            try {
+                if (mIsFullRedraw) {
+                    mDirtyRect.set(0, 0, mSurfaceW, mSurfaceH);
+                }
+                //  the surface may grow the dirty rectangle, if it can't preserve
+                //  the rest of the previous frame - the canvas is clipped to it anyway
+                final long lockTime = System.nanoTime();
+                c = mSurfaceHolder.lockCanvas(mDirtyRect);
+                final long drawTime = System.nanoTime();
+                mTrace.setPhase(FrameTrace.PHASE_LOCK, lockTime, drawTime);
+                if (c != null) {
+                    synchronized (mSurfaceHolder) {
+                        if (mIsAllocCountingStarted) {
+                            Debug.resetThreadAllocCount();
+                            mView.onDraw(c);
+                            mNumFrameAllocs += Debug.getThreadAllocCount();
+                        } else {
+                            mView.onDraw(c);
+                        }
+                    }
+                    mTrace.setPhase(FrameTrace.PHASE_DRAW, drawTime, System.nanoTime());
+                }
+            } finally {
+                if (c != null) {
+                    final long postTime = System.nanoTime();
+                    mSurfaceHolder.unlockCanvasAndPost(c);
+                    mTrace.setPhase(FrameTrace.PHASE_POST, postTime, System.nanoTime());
+                    mDirtyRect.setEmpty();
+                    mIsFullRedraw = false;
+                    logFrameTime(isComplete);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            mLastTime = SystemClock.uptimeMillis();
+            while (mIsRunning) {
+                final long time = SystemClock.uptimeMillis();
+                final float timeDelta = ((float)(time - mLastTime)) * 0.001f;
+                mLastTime = time;
+                mTrace.beginFrame();
+                final long startTime = System.nanoTime();
+                processInput();
+                final long inputTime = System.nanoTime();
+                mTrace.setPhase(FrameTrace.PHASE_INPUT, startTime, inputTime);
+                if (mIsCountingAllocs != mIsAllocCountingStarted) {
+                    mIsAllocCountingStarted = mIsCountingAllocs;
+                    if (mIsAllocCountingStarted) {
+                        Debug.startAllocCounting();
+                    } else {
+                        Debug.stopAllocCounting();
+                    }
+                }
+                if (mIsAllocCountingStarted) {
+                    Debug.resetThreadAllocCount();
+                    update(timeDelta);
+                    mNumFrameAllocs = Debug.getThreadAllocCount();
+                } else {
+                    update(timeDelta);
+                }
+                mTrace.setPhase(FrameTrace.PHASE_UPDATE, inputTime, System.nanoTime());
+                if (isDirty()) {
+                    drawFrame();
+                }
+                if (mIsAllocCountingStarted) {
+                    mNumTotalAllocs += mNumFrameAllocs;
+                }
+                endTraceFrame(startTime, mIsAllocCountingStarted ? mNumFrameAllocs : 0);
+
+                //  paced in nanoseconds, as the 60 fps frame is not a whole number of milliseconds
+                final long frameTime = System.nanoTime() - startTime;
+                final long targetFrameTime = mTargetFrameNanos;
+                mFrameTime = frameTime;
+                mAvgFrameTime += (frameTime - mAvgFrameTime)/10;
+                mNumFrames++;
+                if (frameTime > targetFrameTime) {
+                    mNumDroppedFrames += frameTime/targetFrameTime;
+                }
+
+                if (mMode == MODE_ON_DEMAND && !isAnimating()) {
+                    waitForWork();
+                    //  the idle time does not count as animation time
+                    mLastTime = SystemClock.uptimeMillis();
+                } else if (frameTime < targetFrameTime) {
+                    try {
+                        long sleepTime = targetFrameTime - frameTime;
+                        Thread.sleep(sleepTime/1000000, (int) (sleepTime % 1000000));
+                    } catch (InterruptedException e) {
+                        // just go on with the next frame
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Pool of the game animations.
+     * Every card cell has its own track (a short queue of animation steps) and there is
+     * one more track for the captions. All the state is kept in preallocated arrays,
+     * so nothing gets allocated when animations are started, updated or drawn.
+     */
+    class AnimationTracks {
+        private final int mNumTracks;
+
+        //  per-track state
+        private final int[] mFirstStep;
+        private final int[] mNumSteps;
+        private final float[] mCurTime;
+
+        //  the card tracks with steps left, in no particular order, and the position of every track
+        //  in there (-1 if not playing), so that updating does not depend on the board size
+        private final int[] mActiveTracks;
+        private final int[] mActivePos;
+        private int mNumActiveTracks = 0;
+
+        //  per-step state, the steps of a track live at [track*MAX_ANIM_STEPS, (track + 1)*MAX_ANIM_STEPS)
+        private final int[] mStepType;
+        private final int[] mStepCardID;
+        private final int[] mStepColor;
+        private final float[] mStepDuration;
+        private final float[] mStepStartSize;
+        private final float[] mStepEndSize;
+        private final String[] mStepCaption;
+
+        private final RectF mCaptionRect = new RectF();
+
+        public AnimationTracks(int numCardTracks) {
+            mNumTracks = numCardTracks + 1;
+            mFirstStep = new int[mNumTracks];
+            mNumSteps = new int[mNumTracks];
+            mCurTime = new float[mNumTracks];
+            mActiveTracks = new int[numCardTracks];
+            mActivePos = new int[numCardTracks];
+            java.util.Arrays.fill(mActivePos, -1);
+
+            int numSteps = mNumTracks*MAX_ANIM_STEPS;
+            mStepType = new int[numSteps];
+            mStepCardID = new int[numSteps];
+            mStepColor = new int[numSteps];
+            mStepDuration = new float[numSteps];
+            mStepStartSize = new float[numSteps];
+            mStepEndSize = new float[numSteps];
+            mStepCaption = new String[numSteps];
+        }
+
+        public int getNumCardTracks() {
+            return mNumTracks - 1;
+        }
+
+        public int getNumActiveCardTracks() {
+            return mNumActiveTracks;
+        }
+
+        /**
+         * The card track playing at the position in the active list, which the finished tracks
+         * get removed from by update() with the last track moved into their place
+         */
+        public int getActiveCardTrack(int i) {
+            return mActiveTracks[i];
+        }
+
+        /**
+         * Index of the captions track
+         */
+        public int getTextTrack() {
+            return mNumTracks - 1;
+        }
+
+        /**
+         * Stops all the animations
+         */
+        public void reset() {
+            for (int i = 0; i < mNumTracks; i++) {
+                startTrack(i);
+            }
+        }
+
+        /**
+         * Clears the track, so that the steps added afterwards start playing from scratch
+         */
+        public void startTrack(int track) {
+            int base = track*MAX_ANIM_STEPS;
+            for (int i = 0; i < MAX_ANIM_STEPS; i++) {
+                mStepCaption[base + i] = null;
+            }
+            mFirstStep[track] = 0;
+            mNumSteps[track] = 0;
+            mCurTime[track] = 0.0f;
+            setActive(track, false);
+        }
+
+        private void setActive(int track, boolean isActive) {
+            if (track == getTextTrack() || (mActivePos[track] != -1) == isActive) {
+                return;
+            }
+            if (isActive) {
+                mActivePos[track] = mNumActiveTracks;
+                mActiveTracks[mNumActiveTracks++] = track;
+            } else {
+                int lastTrack = mActiveTracks[--mNumActiveTracks];
+                mActiveTracks[mActivePos[track]] = lastTrack;
+                mActivePos[lastTrack] = mActivePos[track];
+                mActivePos[track] = -1;
+            }
+        }
+
+        public boolean isPlaying(int track) {
+            return mNumSteps[track] > 0;
+        }
+
+        public void addCardStep(int cardIdx, int type, int cardID) {
+            int step = addStep(cardIdx, type, type == ANIM_DISSOLVE ? 1.0f : 0.5f);
+            mStepCardID[step] = cardID;
+        }
+
+        public void addTextStep(String caption, int color, float startTextSize, float endTextSize, float duration) {
+            int step = addStep(getTextTrack(), ANIM_TEXT, duration);
+            mStepCaption[step] = caption;
+            mStepColor[step] = color;
+            mStepStartSize[step] = startTextSize;
+            mStepEndSize[step] = endTextSize;
+        }
+
+        private int addStep(int track, int type, float duration) {
+            if (mFirstStep[track] + mNumSteps[track] == MAX_ANIM_STEPS) {
+                throw new IllegalStateException("Too many steps in the animation track");
+            }
+            int step = track*MAX_ANIM_STEPS + mFirstStep[track] + mNumSteps[track];
+            mNumSteps[track]++;
+            setActive(track, true);
+            mStepType[step] = type;
+            mStepDuration[step] = duration;
+            return step;
+        }
+
+        /**
+         * Advances the track, returns true if it is still playing
+         */
+        public boolean update(int track, float dt) {
+            mCurTime[track] += dt;
+            int step = track*MAX_ANIM_STEPS + mFirstStep[track];
+            if (mCurTime[track] > mStepDuration[step]) {
+                //  move on to the next step
+                mStepCaption[step] = null;
+                mFirstStep[track]++;
+                mNumSteps[track]--;
+                mCurTime[track] = 0.0f;
+                if (mNumSteps[track] == 0) {
+                    mFirstStep[track] = 0;
+                    setActive(track, false);
+                }
+            }
+            return mNumSteps[track] > 0;
+        }
+
+        public void draw(BoardRenderer renderer, int track) {
+            int step = track*MAX_ANIM_STEPS + mFirstStep[track];
+            float ratio = mCurTime[track]/mStepDuration[step];
+            int cardID = mStepCardID[step];
+            switch (mStepType[step]) {
+                case ANIM_IDLE:
+                    //  draws the card in static position
+                    renderer.drawCard(track, Math.abs(cardID), 1.0f, 1.0f);
+                    break;
+                case ANIM_FLIP: {
+                    double scale = Math.cos(Math.PI*ratio);
+                    renderer.drawCard(track, (scale > 0) ? cardID : -cardID, (float) Math.abs(scale), 1.0f);
+                    break;
+                }
+                case ANIM_DISSOLVE:
+                    renderer.drawCard(track, Math.abs(cardID), 1.0f, 1.0f - ratio);
+                    break;
+                case ANIM_TEXT: {
+                    //  flying colored text
+                    int entry = layoutCaption(step, ratio, mSurfaceW, mSurfaceH, mCaptionRect);
+                    //  quadratic function - decay faster towards the end
+                    renderer.drawCaption(mCaptionCache.getBitmap(entry), mCaptionRect, 1.0f - ratio*ratio);
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Gets the screen area covered by the current caption
+         */
+        public void getTextBounds(Rect bounds, int canvasW, int canvasH) {
+            int track = getTextTrack();
+            int step = track*MAX_ANIM_STEPS + mFirstStep[track];
+            layoutCaption(step, mCurTime[track]/mStepDuration[step], canvasW, canvasH, mCaptionRect);
+            //  leave some room for the filtering
+            bounds.set((int) mCaptionRect.left - 1, (int) mCaptionRect.top - 1,
+                    (int) mCaptionRect.right + 2, (int) mCaptionRect.bottom + 2);
+        }
+
+        /**
+         * Places the caption bitmap on the screen, returns its caption cache entry
+         */
+        private int layoutCaption(int step, float ratio, int canvasW, int canvasH, RectF rect) {
+            int entry = mCaptionCache.get(mStepCaption[step], mStepColor[step], mStepEndSize[step]);
+            Bitmap bitmap = mCaptionCache.getBitmap(entry);
+            float textSize = mStepStartSize[step] + (mStepEndSize[step] - mStepStartSize[step])*ratio;
+            float scale = textSize/mCaptionCache.getTextSize(entry);
+            float x = canvasW/2;
+            float y = (int)(canvasH + textSize)/2;
+            float halfW = bitmap.getWidth()*scale/2;
+            rect.left = x - halfW;
+            rect.right = x + halfW;
+            rect.top = y - mCaptionCache.getBaseline(entry)*scale;
+            rect.bottom = rect.top + bitmap.getHeight()*scale;
+            return entry;
         }
     }
-}
\ No newline at end of file
+}
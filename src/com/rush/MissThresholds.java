@@ -0,0 +1,100 @@
+package com.rush;
+
+import java.util.Arrays;
+
+/**
+ * Miss thresholds by the number of pairs, simulated with MemoryPlayer: for every number
+ * of pairs up to 144, and for the larger boards (up to the 8192 pairs of the largest one)
+ * at the sampled sizes, interpolated linearly in between.
+ * Generated by com.rush.tools.MissSimulator (10000 games per size, less on the sampled ones), do not edit.
+ */
+public final class MissThresholds {
+    private MissThresholds() {
+    }
+
+    //  the simulated numbers of pairs
+    private static final int[] PAIRS = {
+            0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11,
+            12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23,
+            24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35,
+            36, 37, 38, 39, 40, 41, 42, 43, 44, 45, 46, 47,
+            48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58, 59,
+            60, 61, 62, 63, 64, 65, 66, 67, 68, 69, 70, 71,
+            72, 73, 74, 75, 76, 77, 78, 79, 80, 81, 82, 83,
+            84, 85, 86, 87, 88, 89, 90, 91, 92, 93, 94, 95,
+            96, 97, 98, 99, 100, 101, 102, 103, 104, 105, 106, 107,
+            108, 109, 110, 111, 112, 113, 114, 115, 116, 117, 118, 119,
+            120, 121, 122, 123, 124, 125, 126, 127, 128, 129, 130, 131,
+            132, 133, 134, 135, 136, 137, 138, 139, 140, 141, 142, 143,
+            144, 180, 225, 281, 351, 438, 547, 683, 853, 1066, 1332, 1665,
+            2081, 2601, 3251, 4063, 5078, 6347, 7933, 8192,
+    };
+
+    //  at most the 90th percentile of a player with perfect recall
+    private static final int[] GOOD_MISSES = {
+            0, 0, 1, 2, 3, 3, 4, 5, 5, 6, 7, 7,
+            8, 8, 9, 10, 10, 11, 12, 12, 13, 14, 14, 15,
+            16, 16, 17, 17, 18, 19, 19, 20, 21, 21, 22, 22,
+            23, 24, 24, 25, 26, 26, 27, 28, 28, 29, 29, 30,
+            31, 31, 32, 33, 33, 34, 35, 35, 36, 36, 37, 38,
+            38, 39, 40, 40, 41, 41, 42, 43, 43, 44, 45, 45,
+            46, 46, 47, 48, 48, 49, 50, 50, 51, 51, 52, 53,
+            53, 54, 55, 55, 56, 56, 57, 58, 58, 59, 60, 60,
+            61, 61, 62, 63, 63, 64, 65, 65, 66, 67, 67, 68,
+            68, 69, 70, 70, 71, 71, 72, 73, 73, 74, 75, 75,
+            76, 76, 77, 78, 78, 79, 80, 80, 81, 81, 82, 83,
+            83, 84, 85, 85, 86, 86, 87, 88, 88, 89, 90, 90,
+            91, 116, 147, 184, 232, 290, 363, 454, 568, 710, 888, 1109,
+            1388, 1733, 2167, 2707, 3380, 4226, 5280, 5453,
+    };
+
+    //  more than the median of a player remembering 8 cards
+    private static final int[] BAD_MISSES = {
+            0, 1, 2, 3, 4, 4, 5, 6, 6, 7, 8, 8,
+            9, 9, 10, 11, 12, 14, 16, 18, 20, 22, 24, 27,
+            29, 32, 35, 38, 41, 44, 48, 51, 55, 59, 63, 67,
+            71, 76, 80, 85, 90, 95, 100, 106, 111, 117, 122, 128,
+            134, 140, 147, 154, 160, 166, 174, 181, 187, 195, 202, 210,
+            218, 225, 234, 241, 249, 258, 267, 275, 284, 294, 302, 312,
+            321, 331, 341, 351, 360, 370, 381, 392, 401, 414, 423, 435,
+            446, 459, 468, 480, 492, 503, 516, 528, 540, 552, 566, 576,
+            590, 603, 615, 631, 642, 657, 671, 685, 698, 712, 727, 740,
+            756, 772, 788, 801, 817, 830, 846, 864, 879, 894, 911, 924,
+            942, 959, 975, 991, 1007, 1026, 1041, 1058, 1079, 1095, 1112, 1130,
+            1147, 1166, 1185, 1202, 1223, 1243, 1259, 1279, 1301, 1319, 1337, 1357,
+            1375, 1702, 2173, 2856, 3557, 4531, 5648, 7073, 8812, 11006, 13723, 17132,
+            21349, 26568, 33206, 41340, 51646, 64422, 80321, 83000,
+    };
+
+    /**
+     * The misses are still good for the number of pairs, if there are at most that many
+     */
+    public static int getGoodMisses(int numPairs) {
+        return lookup(GOOD_MISSES, numPairs);
+    }
+
+    /**
+     * The misses are bad for the number of pairs, if there are more than that
+     */
+    public static int getBadMisses(int numPairs) {
+        return lookup(BAD_MISSES, numPairs);
+    }
+
+    private static int lookup(int[] table, int numPairs) {
+        int i = Arrays.binarySearch(PAIRS, numPairs);
+        if (i >= 0) {
+            return table[i];
+        }
+        //  the first sample above
+        i = -i - 1;
+        if (i == 0) {
+            return table[0];
+        }
+        if (i == PAIRS.length) {
+            //  over the board size limit, which never gets dealt
+            return table[i - 1];
+        }
+        return table[i - 1] + (int) ((long) (table[i] - table[i - 1])*(numPairs - PAIRS[i - 1])
+                /(PAIRS[i] - PAIRS[i - 1]));
+    }
+}
@@ -0,0 +1,73 @@
+package com.rush;
+
+/**
+ * Turns and scores of the players sharing a board, free of any Android dependencies.
+ *
+ * The players take turns of two flips. A player who finds a pair keeps the turn, a miss passes
+ * it on to the next player. The score of a player is the number of the pairs found.
+ * The board itself is not touched, the results of its flip() get fed in with onFlipped(),
+ * so every side of a match (the players and the server) keeps the turns in the same way.
+ */
+public class PlayerTurns {
+    public static final int MAX_PLAYERS = 8;
+
+    private final int[] mScores = new int[MAX_PLAYERS];
+    private int mNumPlayers = 1;
+    private int mCurPlayer = 0;
+
+    /**
+     * Starts a new board, with the first player to flip
+     */
+    public void start(int numPlayers) {
+        if (numPlayers < 1 || numPlayers > MAX_PLAYERS) {
+            throw new IllegalArgumentException("Bad number of players " + numPlayers);
+        }
+        mNumPlayers = numPlayers;
+        mCurPlayer = 0;
+        java.util.Arrays.fill(mScores, 0);
+    }
+
+    /**
+     * Applies the result of GameBoard.flip() by the current player
+     */
+    public void onFlipped(int result) {
+        switch (result) {
+            case GameBoard.FLIP_MATCH:
+            case GameBoard.FLIP_WIN:
+                mScores[mCurPlayer]++;
+                break;
+            case GameBoard.FLIP_MISS:
+                mCurPlayer = (mCurPlayer + 1) % mNumPlayers;
+                break;
+        }
+    }
+
+    public int getNumPlayers() {
+        return mNumPlayers;
+    }
+
+    public int getCurrentPlayer() {
+        return mCurPlayer;
+    }
+
+    public int getScore(int player) {
+        return mScores[player];
+    }
+
+    /**
+     * The player with the most pairs, or -1 if several players share the top score
+     */
+    public int getLeader() {
+        int leader = 0;
+        boolean isTie = false;
+        for (int i = 1; i < mNumPlayers; i++) {
+            if (mScores[i] > mScores[leader]) {
+                leader = i;
+                isTie = false;
+            } else if (mScores[i] == mScores[leader]) {
+                isTie = true;
+            }
+        }
+        return isTie ? -1 : leader;
+    }
+}
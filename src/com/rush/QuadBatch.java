@@ -0,0 +1,151 @@
+package com.rush;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A batch of textured quads, laid out for the OpenGL ES vertex arrays, so that all
+ * the quads sharing a texture go out in a single glDrawElements() call.
+ * Free of any Android dependencies.
+ *
+ * Every vertex has the position and the texture coordinates interleaved (x, y, u, v),
+ * and a separate RGBA color, which carries the per-quad alpha (premultiplied).
+ * The quads are collected in plain arrays and copied into the direct buffers once per frame.
+ */
+public class QuadBatch {
+    public static final int VERTEX_FLOATS = 4;
+    public static final int VERTEX_STRIDE = VERTEX_FLOATS*4;
+    public static final int COLOR_BYTES = 4;
+    public static final int INDICES_PER_QUAD = 6;
+
+    //  the indices are unsigned shorts, 4 vertices per quad
+    public static final int MAX_QUADS = 65536/4;
+
+    private float[] mVertices = new float[0];
+    private byte[] mColors = new byte[0];
+    private int mNumQuads = 0;
+    private int mCapacity = 0;
+
+    private FloatBuffer mVertexBuffer;
+    private ByteBuffer mColorBuffer;
+    private ShortBuffer mIndexBuffer;
+
+    public QuadBatch(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Grows the batch, so that it can hold the number of quads without reallocating
+     */
+    public void ensureCapacity(int numQuads) {
+        if (numQuads <= mCapacity) {
+            return;
+        }
+        if (numQuads > MAX_QUADS) {
+            throw new IllegalArgumentException("Too many quads in the batch: " + numQuads);
+        }
+        float[] vertices = new float[numQuads*4*VERTEX_FLOATS];
+        System.arraycopy(mVertices, 0, vertices, 0, mNumQuads*4*VERTEX_FLOATS);
+        mVertices = vertices;
+        byte[] colors = new byte[numQuads*4*COLOR_BYTES];
+        System.arraycopy(mColors, 0, colors, 0, mNumQuads*4*COLOR_BYTES);
+        mColors = colors;
+
+        mVertexBuffer = ByteBuffer.allocateDirect(vertices.length*4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mColorBuffer = ByteBuffer.allocateDirect(colors.length).order(ByteOrder.nativeOrder());
+        mIndexBuffer = ByteBuffer.allocateDirect(numQuads*INDICES_PER_QUAD*2).order(ByteOrder.nativeOrder())
+                .asShortBuffer();
+        //  two triangles per quad, the vertices go top-left, top-right, bottom-left, bottom-right
+        for (int i = 0; i < numQuads; i++) {
+            short base = (short) (i*4);
+            mIndexBuffer.put(base);
+            mIndexBuffer.put((short) (base + 1));
+            mIndexBuffer.put((short) (base + 2));
+            mIndexBuffer.put((short) (base + 2));
+            mIndexBuffer.put((short) (base + 1));
+            mIndexBuffer.put((short) (base + 3));
+        }
+        mIndexBuffer.position(0);
+        mCapacity = numQuads;
+    }
+
+    public void clear() {
+        mNumQuads = 0;
+    }
+
+    public int getNumQuads() {
+        return mNumQuads;
+    }
+
+    public int getNumIndices() {
+        return mNumQuads*INDICES_PER_QUAD;
+    }
+
+    /**
+     * Adds the quad with the texture area (u0, v0)-(u1, v1) stretched over it
+     */
+    public void add(float left, float top, float right, float bottom,
+            float u0, float v0, float u1, float v1, float alpha) {
+        if (mNumQuads == mCapacity) {
+            int capacity = Math.max(mCapacity*2, 16);
+            if (capacity > MAX_QUADS && mCapacity < MAX_QUADS) {
+                capacity = MAX_QUADS;
+            }
+            ensureCapacity(capacity);
+        }
+        int v = mNumQuads*4*VERTEX_FLOATS;
+        float[] vertices = mVertices;
+        vertices[v] = left;
+        vertices[v + 1] = top;
+        vertices[v + 2] = u0;
+        vertices[v + 3] = v0;
+        vertices[v + 4] = right;
+        vertices[v + 5] = top;
+        vertices[v + 6] = u1;
+        vertices[v + 7] = v0;
+        vertices[v + 8] = left;
+        vertices[v + 9] = bottom;
+        vertices[v + 10] = u0;
+        vertices[v + 11] = v1;
+        vertices[v + 12] = right;
+        vertices[v + 13] = bottom;
+        vertices[v + 14] = u1;
+        vertices[v + 15] = v1;
+
+        byte a = (byte) (Math.max(0.0f, Math.min(alpha, 1.0f))*255.0f + 0.5f);
+        int c = mNumQuads*4*COLOR_BYTES;
+        for (int i = 0; i < 4*COLOR_BYTES; i++) {
+            mColors[c + i] = a;
+        }
+        mNumQuads++;
+    }
+
+    /**
+     * Copies the quads into the direct buffers, to be called before the buffers are handed over to GL
+     */
+    public void flush() {
+        mVertexBuffer.clear();
+        mVertexBuffer.put(mVertices, 0, mNumQuads*4*VERTEX_FLOATS);
+        mVertexBuffer.position(0);
+        mColorBuffer.clear();
+        mColorBuffer.put(mColors, 0, mNumQuads*4*COLOR_BYTES);
+        mColorBuffer.position(0);
+    }
+
+    /** Interleaved (x, y, u, v) vertices, positioned at the first vertex */
+    public FloatBuffer getVertexBuffer() {
+        return mVertexBuffer;
+    }
+
+    /** RGBA vertex colors */
+    public ByteBuffer getColorBuffer() {
+        return mColorBuffer;
+    }
+
+    /** Triangle indices, as unsigned shorts */
+    public ShortBuffer getIndexBuffer() {
+        return mIndexBuffer;
+    }
+}
@@ -0,0 +1,444 @@
+package com.rush;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+
+/**
+ * High scores and statistics of the finished games, free of any Android dependencies.
+ *
+ * The results get appended to a binary log, the leaderboard (the best scores of every board size)
+ * and the per board size totals are kept in memory and updated with every result, so they
+ * never need the log rescanned. Once the log grows over the limit it gets compacted: rewritten
+ * as a summary of every board size, followed by the results on its leaderboard.
+ *
+ * Log layout (big endian, see VarInt for the varints):
+ *   int     MAGIC ("MGS1")
+ *   byte    VERSION
+ *   records, each:
+ *     byte    record type
+ *     RECORD_SCORE:   varint numCardsW, varint numCardsH, varint numMisses, varint duration (ms),
+ *                     long time (ms since the epoch), varint numFaces, varint face per face
+ *     RECORD_SUMMARY: varint numCardsW, varint numCardsH, varint numGames, varint totalMisses,
+ *                     varint totalDuration (ms), the totals of the results not in the log
+ * A damaged tail of the log, such as a record cut short by a crash, gets dropped on load.
+ *
+ * add() only touches memory, the file gets written by flush(), which is meant to run in the background.
+ */
+public class ScoreStore {
+    public static final int MAGIC = 0x4D475331;
+    public static final int VERSION = 1;
+
+    public static final int RECORD_SCORE = 1;
+    public static final int RECORD_SUMMARY = 2;
+
+    private static final int HEADER_SIZE = 5;
+
+    /**
+     * Result of a finished game
+     */
+    public static class Score {
+        public final int mNumCardsW;
+        public final int mNumCardsH;
+        public final int mNumMisses;
+        public final long mDuration;
+        public final long mTime;
+        //  the faces (1-based) of the matched pairs
+        public final int[] mFaces;
+
+        public Score(int numCardsW, int numCardsH, int numMisses, long duration, long time, int[] faces) {
+            mNumCardsW = numCardsW;
+            mNumCardsH = numCardsH;
+            mNumMisses = numMisses;
+            mDuration = duration;
+            mTime = time;
+            mFaces = faces;
+        }
+
+        /**
+         * Whether the score places higher than the other one: less misses, then faster, then earlier
+         */
+        public boolean isBetterThan(Score other) {
+            if (mNumMisses != other.mNumMisses) {
+                return mNumMisses < other.mNumMisses;
+            }
+            if (mDuration != other.mDuration) {
+                return mDuration < other.mDuration;
+            }
+            return mTime < other.mTime;
+        }
+    }
+
+    /**
+     * Totals and the leaderboard of one board size
+     */
+    public static class BoardStats {
+        public final int mNumCardsW;
+        public final int mNumCardsH;
+        public int mNumGames;
+        public long mTotalMisses;
+        public long mTotalDuration;
+
+        //  the best scores, best first
+        final Score[] mTopScores;
+        int mNumTopScores;
+
+        BoardStats(int numCardsW, int numCardsH, int maxTopScores) {
+            mNumCardsW = numCardsW;
+            mNumCardsH = numCardsH;
+            mTopScores = new Score[maxTopScores];
+        }
+
+        BoardStats copy() {
+            BoardStats stats = new BoardStats(mNumCardsW, mNumCardsH, mTopScores.length);
+            stats.mNumGames = mNumGames;
+            stats.mTotalMisses = mTotalMisses;
+            stats.mTotalDuration = mTotalDuration;
+            System.arraycopy(mTopScores, 0, stats.mTopScores, 0, mNumTopScores);
+            stats.mNumTopScores = mNumTopScores;
+            return stats;
+        }
+
+        public int getNumTopScores() {
+            return mNumTopScores;
+        }
+
+        public Score getTopScore(int place) {
+            return mTopScores[place];
+        }
+
+        /**
+         * Puts the score on the leaderboard, returns its place (1-based) or 0 if it is not good enough
+         */
+        int insert(Score score) {
+            int pos = mNumTopScores;
+            while (pos > 0 && score.isBetterThan(mTopScores[pos - 1])) {
+                pos--;
+            }
+            if (pos == mTopScores.length) {
+                return 0;
+            }
+            int numToMove = Math.min(mNumTopScores, mTopScores.length - 1) - pos;
+            System.arraycopy(mTopScores, pos, mTopScores, pos + 1, numToMove);
+            mTopScores[pos] = score;
+            mNumTopScores = Math.min(mNumTopScores + 1, mTopScores.length);
+            return pos + 1;
+        }
+    }
+
+    private final File mFile;
+    private final int mMaxTopScores;
+    private final int mCompactSize;
+
+    private final HashMap<Integer, BoardStats> mStats = new HashMap<Integer, BoardStats>();
+    //  the records added since the last flush()
+    private final ByteArrayOutputStream mPending = new ByteArrayOutputStream(64);
+    //  size of the log right after it was last compacted or loaded
+    private long mCompactedSize = 0;
+    private volatile boolean mIsLoaded = false;
+    //  serializes the file access, the statistics are guarded by the store itself
+    private final Object mFileLock = new Object();
+
+    /**
+     * The log gets compacted on flush(), once it is over compactSize bytes
+     */
+    public ScoreStore(File file, int maxTopScores, int compactSize) {
+        mFile = file;
+        mMaxTopScores = maxTopScores;
+        mCompactSize = compactSize;
+    }
+
+    public boolean isLoaded() {
+        return mIsLoaded;
+    }
+
+    /**
+     * Reads the log, on top of the results added so far. A missing log counts as empty.
+     * Does nothing if the log is loaded already.
+     */
+    public void load() throws IOException {
+        synchronized (mFileLock) {
+            if (!mIsLoaded) {
+                loadFile();
+            }
+        }
+    }
+
+    private void loadFile() throws IOException {
+        if (!mFile.exists()) {
+            mIsLoaded = true;
+            return;
+        }
+        byte[] data = readFile(mFile);
+        int validSize;
+        try {
+            validSize = parse(data);
+        } catch (IOException e) {
+            //  not a log, keep it for a look and start over
+            mFile.renameTo(new File(mFile.getPath() + ".bad"));
+            mIsLoaded = true;
+            throw e;
+        }
+        if (validSize < data.length) {
+            //  drop the damaged records, so that the new ones get appended after the last good one
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            try {
+                file.setLength(validSize);
+            } finally {
+                file.close();
+            }
+        }
+        mCompactedSize = validSize;
+        mIsLoaded = true;
+    }
+
+    /**
+     * Adds the result of a game, returns its place (1-based) on the leaderboard of the board size,
+     * or 0 if it did not make it
+     */
+    public synchronized int add(Score score) {
+        writeScore(mPending, score);
+        return apply(score);
+    }
+
+    /**
+     * Appends the added results to the log, compacting it if it got too long.
+     * Does nothing until the log is loaded.
+     */
+    public void flush() throws IOException {
+        synchronized (mFileLock) {
+            flushFile();
+        }
+    }
+
+    private void flushFile() throws IOException {
+        byte[] records;
+        synchronized (this) {
+            if (!mIsLoaded || mPending.size() == 0) {
+                return;
+            }
+            records = mPending.toByteArray();
+            mPending.reset();
+        }
+        long size = mFile.length();
+        //  the leaderboards alone may take more than the limit, so the log has to double since the last compaction
+        if (size + records.length > Math.max(mCompactSize, mCompactedSize*2)) {
+            compact();
+            return;
+        }
+        boolean isNew = size < HEADER_SIZE;
+        FileOutputStream out = new FileOutputStream(mFile, !isNew);
+        try {
+            if (isNew) {
+                writeHeader(out);
+            }
+            out.write(records);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Rewrites the log from the statistics in memory, which include the results not flushed yet
+     */
+    private void compact() throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(1024);
+        synchronized (this) {
+            writeHeader(data);
+            for (BoardStats stats : mStats.values()) {
+                long numGames = stats.mNumGames;
+                long totalMisses = stats.mTotalMisses;
+                long totalDuration = stats.mTotalDuration;
+                for (int i = 0; i < stats.mNumTopScores; i++) {
+                    numGames--;
+                    totalMisses -= stats.mTopScores[i].mNumMisses;
+                    totalDuration -= stats.mTopScores[i].mDuration;
+                }
+                data.write(RECORD_SUMMARY);
+                VarInt.write(data, stats.mNumCardsW);
+                VarInt.write(data, stats.mNumCardsH);
+                VarInt.write(data, numGames);
+                VarInt.write(data, totalMisses);
+                VarInt.write(data, totalDuration);
+                for (int i = 0; i < stats.mNumTopScores; i++) {
+                    writeScore(data, stats.mTopScores[i]);
+                }
+            }
+            mPending.reset();
+        }
+        //  the old log stays intact until the new one is complete
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            data.writeTo(out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(mFile)) {
+            throw new IOException("Failed to replace " + mFile);
+        }
+        mCompactedSize = data.size();
+    }
+
+    /**
+     * A copy of the statistics of the board size, or null if no game of the size was finished yet
+     */
+    public synchronized BoardStats getStats(int numCardsW, int numCardsH) {
+        BoardStats stats = mStats.get(getKey(numCardsW, numCardsH));
+        return (stats != null) ? stats.copy() : null;
+    }
+
+    /**
+     * The leaderboard of the board size, best first
+     */
+    public synchronized Score[] getTopScores(int numCardsW, int numCardsH) {
+        BoardStats stats = mStats.get(getKey(numCardsW, numCardsH));
+        if (stats == null) {
+            return new Score[0];
+        }
+        Score[] scores = new Score[stats.mNumTopScores];
+        System.arraycopy(stats.mTopScores, 0, scores, 0, scores.length);
+        return scores;
+    }
+
+    private static Integer getKey(int numCardsW, int numCardsH) {
+        return Integer.valueOf((numCardsW << 16) | numCardsH);
+    }
+
+    private BoardStats getOrCreateStats(int numCardsW, int numCardsH) {
+        Integer key = getKey(numCardsW, numCardsH);
+        BoardStats stats = mStats.get(key);
+        if (stats == null) {
+            stats = new BoardStats(numCardsW, numCardsH, mMaxTopScores);
+            mStats.put(key, stats);
+        }
+        return stats;
+    }
+
+    private int apply(Score score) {
+        BoardStats stats = getOrCreateStats(score.mNumCardsW, score.mNumCardsH);
+        stats.mNumGames++;
+        stats.mTotalMisses += score.mNumMisses;
+        stats.mTotalDuration += score.mDuration;
+        return stats.insert(score);
+    }
+
+    /**
+     * Applies the records of the log up to the first damaged one, returns the size of the applied part.
+     * Throws only if the header is wrong, before anything got applied.
+     */
+    private synchronized int parse(byte[] data) throws IOException {
+        if (data.length < HEADER_SIZE) {
+            return 0;
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        if (readInt(in) != MAGIC) {
+            throw new IOException("Not a score log");
+        }
+        if (readByte(in) != VERSION) {
+            throw new IOException("Unsupported score log version");
+        }
+        int validSize = HEADER_SIZE;
+        try {
+            while (in.available() > 0) {
+                int type = readByte(in);
+                int numCardsW = VarInt.readInt(in);
+                int numCardsH = VarInt.readInt(in);
+                if (numCardsW <= 0 || numCardsH <= 0) {
+                    throw new IOException("Bad board size in the score log");
+                }
+                switch (type) {
+                    case RECORD_SCORE: {
+                        int numMisses = VarInt.readInt(in);
+                        long duration = VarInt.readLong(in);
+                        long time = ((long) readInt(in) << 32) | (readInt(in) & 0xFFFFFFFFL);
+                        int numFaces = VarInt.readInt(in);
+                        if (numFaces > in.available()) {
+                            throw new IOException("Bad number of faces in the score log");
+                        }
+                        int[] faces = new int[numFaces];
+                        for (int i = 0; i < numFaces; i++) {
+                            faces[i] = VarInt.readInt(in);
+                        }
+                        apply(new Score(numCardsW, numCardsH, numMisses, duration, time, faces));
+                        break;
+                    }
+                    case RECORD_SUMMARY: {
+                        int numGames = VarInt.readInt(in);
+                        long totalMisses = VarInt.readLong(in);
+                        long totalDuration = VarInt.readLong(in);
+                        BoardStats stats = getOrCreateStats(numCardsW, numCardsH);
+                        stats.mNumGames += numGames;
+                        stats.mTotalMisses += totalMisses;
+                        stats.mTotalDuration += totalDuration;
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown record " + type + " in the score log");
+                }
+                validSize = data.length - in.available();
+            }
+        } catch (IOException e) {
+            //  the rest of the log is lost, the records before the damaged one are fine
+        }
+        return validSize;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int size = 0;
+            int len;
+            while (size < data.length && (len = in.read(data, size, data.length - size)) > 0) {
+                size += len;
+            }
+            if (size < data.length) {
+                byte[] readData = new byte[size];
+                System.arraycopy(data, 0, readData, 0, size);
+                return readData;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeHeader(java.io.OutputStream out) throws IOException {
+        out.write(new byte[] { (byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC,
+                (byte) VERSION });
+    }
+
+    private static void writeScore(ByteArrayOutputStream out, Score score) {
+        out.write(RECORD_SCORE);
+        VarInt.write(out, score.mNumCardsW);
+        VarInt.write(out, score.mNumCardsH);
+        VarInt.write(out, score.mNumMisses);
+        VarInt.write(out, score.mDuration);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (score.mTime >>> shift));
+        }
+        VarInt.write(out, score.mFaces.length);
+        for (int face : score.mFaces) {
+            VarInt.write(out, face);
+        }
+    }
+
+    private static int readByte(ByteArrayInputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new IOException("Truncated score log");
+        }
+        return b;
+    }
+
+    private static int readInt(ByteArrayInputStream in) throws IOException {
+        return (readByte(in) << 24) | (readByte(in) << 16) | (readByte(in) << 8) | readByte(in);
+    }
+}
@@ -0,0 +1,70 @@
+package com.rush;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The variable length numbers of the binary formats (GameRecord, ScoreStore, MatchProtocol),
+ * free of any Android dependencies.
+ *
+ * A non-negative number takes 7 bits per byte, the low bits first, with the high bit set on all
+ * the bytes but the last, so the numbers below 128 take a single byte. The reading rejects
+ * the numbers out of the range of the type read, so a damaged input never turns into a negative value.
+ */
+public final class VarInt {
+    //  the longest encodings of an int and of a long
+    public static final int MAX_INT_SIZE = 5;
+    public static final int MAX_LONG_SIZE = 10;
+
+    private VarInt() {
+    }
+
+    /**
+     * Puts the non-negative value into the buffer at the position, returns the position after it
+     */
+    public static int put(byte[] buf, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    public static void write(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public static int readInt(InputStream in) throws IOException {
+        long value = readLong(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Number out of range");
+        }
+        return (int) value;
+    }
+
+    public static long readLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < MAX_LONG_SIZE*7; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Truncated number");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                //  the tenth byte has room for the 64th bit only, which would make the value negative
+                if (value < 0 || (shift == 63 && b > 1)) {
+                    throw new IOException("Bad number");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Bad number");
+    }
+}
@@ -0,0 +1,160 @@
+package com.rush.tools;
+
+import com.rush.CardInfoTable;
+import com.rush.GameBoard;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles the card descriptions from the text format into the binary CardInfoTable format,
+ * and validates the result.
+ *
+ * Text format, one card per line, in the order of the card faces in cards_fg.png:
+ *   url|name[|year[|fun fact]]
+ * Empty lines are skipped, anything else that does not parse is an error.
+ *
+ * Usage: CardInfoCompiler languages.txt languages.bin
+ */
+public class CardInfoCompiler {
+    static class Entry {
+        String mUrl;
+        String mName;
+        int mYear;
+        String mFunFact = "";
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CardInfoCompiler <input.txt> <output.bin>");
+            System.exit(2);
+        }
+        List<String> errors = new ArrayList<String>();
+        List<Entry> entries = parse(new File(args[0]), errors);
+        if (entries.size() != GameBoard.NUM_VARIATIONS) {
+            errors.add("Expected " + GameBoard.NUM_VARIATIONS + " cards, got " + entries.size());
+        }
+        if (!errors.isEmpty()) {
+            for (String error : errors) {
+                System.err.println(args[0] + ": " + error);
+            }
+            System.exit(1);
+        }
+
+        byte[] data = compile(entries);
+        List<String> validationErrors = validate(ByteBuffer.wrap(data), entries);
+        if (!validationErrors.isEmpty()) {
+            for (String error : validationErrors) {
+                System.err.println(args[1] + ": " + error);
+            }
+            System.exit(1);
+        }
+        OutputStream out = new FileOutputStream(args[1]);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        System.out.println("Wrote " + entries.size() + " cards, " + data.length + " bytes to " + args[1]);
+    }
+
+    static List<Entry> parse(File file, List<String> errors) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            int lineNum = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNum++;
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                String[] parts = line.split("\\|", 4);
+                if (parts.length < 2 || parts[0].trim().length() == 0 || parts[1].trim().length() == 0) {
+                    errors.add("line " + lineNum + ": expected url|name[|year[|fun fact]], got \"" + line + "\"");
+                    continue;
+                }
+                Entry entry = new Entry();
+                entry.mUrl = parts[0].trim();
+                entry.mName = parts[1].trim();
+                if (parts.length > 2 && parts[2].trim().length() > 0) {
+                    try {
+                        entry.mYear = Integer.parseInt(parts[2].trim());
+                    } catch (NumberFormatException e) {
+                        errors.add("line " + lineNum + ": bad year \"" + parts[2] + "\"");
+                        continue;
+                    }
+                    if (entry.mYear < 0 || entry.mYear > 0xFFFF) {
+                        errors.add("line " + lineNum + ": year out of range: " + entry.mYear);
+                        continue;
+                    }
+                }
+                if (parts.length > 3) {
+                    entry.mFunFact = parts[3].trim();
+                }
+                entries.add(entry);
+            }
+        } finally {
+            in.close();
+        }
+        return entries;
+    }
+
+    static byte[] compile(List<Entry> entries) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream recordsOut = new DataOutputStream(records);
+        int tableSize = CardInfoTable.HEADER_SIZE + entries.size()*4;
+        int[] offsets = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            offsets[i] = tableSize + recordsOut.size();
+            recordsOut.writeShort(entry.mYear);
+            writeString(recordsOut, entry.mName);
+            writeString(recordsOut, entry.mUrl);
+            writeString(recordsOut, entry.mFunFact);
+        }
+        recordsOut.flush();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CardInfoTable.MAGIC);
+        out.writeInt(CardInfoTable.VERSION);
+        out.writeInt(entries.size());
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        records.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes("UTF-8");
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("String too long: " + str.substring(0, 32) + "...");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads the compiled table back and checks that it matches the source entries
+     */
+    static List<String> validate(ByteBuffer data, List<Entry> entries) {
+        List<String> errors = new ArrayList<String>();
+        CardInfoTable table = new CardInfoTable(data);
+        if (table.size() != GameBoard.NUM_VARIATIONS) {
+            errors.add("Expected " + GameBoard.NUM_VARIATIONS + " cards, got " + table.size());
+        }
+        for (int i = 0; i < entries.size() && i < table.size(); i++) {
+            Entry entry = entries.get(i);
+            if (!entry.mName.equals(table.getName(i)) || !entry.mUrl.equals(table.getUrl(i))
+                    || !entry.mFunFact.equals(table.getFunFact(i)) || entry.mYear != table.getYear(i)) {
+                errors.add("entry " + i + " (" + entry.mName + ") does not read back");
+            }
+        }
+        return errors;
+    }
+}
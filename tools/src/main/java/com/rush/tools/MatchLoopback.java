@@ -0,0 +1,237 @@
+package com.rush.tools;
+
+import com.rush.GameBoard;
+import com.rush.LevelProgression;
+import com.rush.MatchClient;
+import com.rush.MatchProtocol;
+import com.rush.MemoryPlayer;
+import com.rush.PlayerTurns;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays networked matches against a MatchServer on the loopback interface, with MemoryPlayer
+ * bots for all the players, as a check of the protocol and of the server under load.
+ *
+ * Every bot keeps its own board and turns from the deals and the flips it gets, as the game does,
+ * and flips only on its turn. At the end of every game the bots of a match have to agree on
+ * the board and the scores, and the scores have to add up to the pairs of the board.
+ * Exits with 1 if they do not, or if the server rejected any flip.
+ *
+ * Usage: MatchLoopback [--matches N] [--players P] [--games G] [--levels 3x2,+1x+1]
+ */
+public class MatchLoopback {
+    private static final int DEFAULT_NUM_MATCHES = 100;
+    private static final int DEFAULT_NUM_PLAYERS = 2;
+    private static final int DEFAULT_NUM_GAMES = 5;
+    private static final int BOT_MEMORY_SIZE = 16;
+    private static final long TIMEOUT_SECONDS = 600;
+
+    /**
+     * How a bot saw its match going
+     */
+    static class BotResult {
+        int mNumGames;
+        int mNumFlips;
+        int mNumRejects;
+        String mError;
+        //  the board and the scores at the end of every game
+        byte[][] mBoards;
+        int[][] mScores;
+    }
+
+    /**
+     * One player of a match, connected on its own
+     */
+    static class Bot implements java.util.concurrent.Callable<BotResult> {
+        private final String mAddress;
+        private final int mNumPlayers;
+        private final int mNumGames;
+        private final long mSeed;
+
+        Bot(String address, int numPlayers, int numGames, long seed) {
+            mAddress = address;
+            mNumPlayers = numPlayers;
+            mNumGames = numGames;
+            mSeed = seed;
+        }
+
+        public BotResult call() throws IOException {
+            BotResult result = new BotResult();
+            result.mBoards = new byte[mNumGames][];
+            result.mScores = new int[mNumGames][];
+            GameBoard board = new GameBoard();
+            PlayerTurns turns = new PlayerTurns();
+            MemoryPlayer memory = new MemoryPlayer(BOT_MEMORY_SIZE, new Random(mSeed));
+            MatchProtocol.Message msg = new MatchProtocol.Message();
+            int me = -1;
+            MatchClient client = new MatchClient(mAddress);
+            try {
+                client.join(mNumPlayers);
+                while (result.mNumGames < mNumGames) {
+                    if (!client.read(msg) || msg.mType == MatchProtocol.MSG_LEFT) {
+                        result.mError = "match ended after " + result.mNumGames + " games";
+                        break;
+                    }
+                    switch (msg.mType) {
+                        case MatchProtocol.MSG_DEAL:
+                            board.setSeed(msg.mSeed);
+                            board.startGame(msg.mNumCardsW, msg.mNumCardsH);
+                            turns.start(msg.mNumPlayers);
+                            memory.reset(board);
+                            me = msg.mPlayer;
+                            break;
+                        case MatchProtocol.MSG_FLIP: {
+                            //  every bot watches all the flips, as the players do
+                            int cardIdx = msg.mCardIdx;
+                            if (msg.mPlayer != turns.getCurrentPlayer() || cardIdx < 0 || cardIdx >= board.getNumCells()) {
+                                result.mError = "flip of card " + cardIdx + " out of turn";
+                                return result;
+                            }
+                            int face = Math.abs(board.getCard(cardIdx));
+                            int flippedCardIdx = board.getFlippedCardIdx();
+                            int flipResult = board.flip(cardIdx);
+                            if (flipResult == GameBoard.FLIP_IGNORED) {
+                                result.mError = "flip of card " + cardIdx + " did not apply locally";
+                                return result;
+                            }
+                            memory.onFlipped(cardIdx, face, flippedCardIdx, flipResult);
+                            turns.onFlipped(flipResult);
+                            result.mNumFlips++;
+                            if (board.isGameOver()) {
+                                result.mBoards[result.mNumGames] = board.saveState();
+                                result.mScores[result.mNumGames] = new int[turns.getNumPlayers()];
+                                for (int i = 0; i < turns.getNumPlayers(); i++) {
+                                    result.mScores[result.mNumGames][i] = turns.getScore(i);
+                                }
+                                result.mNumGames++;
+                            }
+                            break;
+                        }
+                        case MatchProtocol.MSG_REJECT:
+                            result.mNumRejects++;
+                            break;
+                    }
+                    //  one flip at a time: the next one goes out once the last one came back
+                    if (msg.mType != MatchProtocol.MSG_REJECT && me == turns.getCurrentPlayer()
+                            && !board.isGameOver()) {
+                        client.sendFlip(me, memory.chooseCard(board));
+                    }
+                }
+            } finally {
+                client.close();
+            }
+            return result;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numMatches = DEFAULT_NUM_MATCHES;
+        int numPlayers = DEFAULT_NUM_PLAYERS;
+        int numGames = DEFAULT_NUM_GAMES;
+        String levels = "3x2,+1x+1";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--matches") && i + 1 < args.length) {
+                numMatches = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--players") && i + 1 < args.length) {
+                numPlayers = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--games") && i + 1 < args.length) {
+                numGames = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--levels") && i + 1 < args.length) {
+                levels = args[++i];
+            } else {
+                System.err.println("Usage: MatchLoopback [--matches N] [--players P] [--games G] [--levels 3x2,+1x+1]");
+                System.exit(2);
+            }
+        }
+
+        MatchServer server = new MatchServer(0, LevelProgression.parse(levels));
+        server.start();
+        String address = "127.0.0.1:" + server.getPort();
+        ExecutorService bots = MatchServer.newTaskExecutor();
+        long startTime = System.nanoTime();
+        //  the bots of a match get started one after another, so that they end up in the same match
+        @SuppressWarnings("unchecked")
+        Future<BotResult>[] futures = new Future[numMatches*numPlayers];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = bots.submit(new Bot(address, numPlayers, numGames, i));
+            if ((i + 1) % numPlayers == 0) {
+                waitForMatches(server, (i + 1)/numPlayers);
+            }
+        }
+        BotResult[] results = new BotResult[futures.length];
+        for (int i = 0; i < futures.length; i++) {
+            results[i] = futures[i].get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        long playTime = System.nanoTime() - startTime;
+        bots.shutdown();
+        server.close();
+
+        int numFailed = 0;
+        long numFlips = 0;
+        for (int match = 0; match < numMatches; match++) {
+            String error = checkMatch(results, match*numPlayers, numPlayers);
+            if (error != null) {
+                numFailed++;
+                System.out.println("match " + match + ": " + error);
+            }
+            numFlips += results[match*numPlayers].mNumFlips;
+        }
+        System.out.printf("%d matches of %d players, %d games, %d flips (%d on the server) in %.3f ms, %.1f us per flip%n",
+                numMatches, numPlayers, server.getNumGames(), numFlips, server.getNumFlips(), playTime/1e6,
+                playTime/1e3/Math.max(numFlips, 1));
+        if (numFailed > 0 || server.getNumRejects() > 0) {
+            System.out.println(numFailed + " matches failed, " + server.getNumRejects() + " flips rejected");
+            System.exit(1);
+        }
+    }
+
+    private static void waitForMatches(MatchServer server, int numMatches) throws InterruptedException {
+        while (server.getNumMatches() < numMatches) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Compares the bots of a match, returns what is wrong or null
+     */
+    static String checkMatch(BotResult[] results, int first, int numPlayers) {
+        BotResult ref = results[first];
+        for (int i = first; i < first + numPlayers; i++) {
+            BotResult result = results[i];
+            if (result.mError != null) {
+                return "player " + (i - first) + ": " + result.mError;
+            }
+            if (result.mNumRejects > 0) {
+                return "player " + (i - first) + ": " + result.mNumRejects + " flips rejected";
+            }
+            for (int game = 0; game < ref.mNumGames; game++) {
+                if (!Arrays.equals(result.mBoards[game], ref.mBoards[game])
+                        || !Arrays.equals(result.mScores[game], ref.mScores[game])) {
+                    return "player " + (i - first) + " diverged in game " + (game + 1);
+                }
+            }
+        }
+        for (int game = 0; game < ref.mNumGames; game++) {
+            GameBoard board = new GameBoard();
+            try {
+                board.restoreState(ref.mBoards[game]);
+            } catch (IOException e) {
+                return "game " + (game + 1) + ": " + e.getMessage();
+            }
+            int total = 0;
+            for (int score : ref.mScores[game]) {
+                total += score;
+            }
+            if (total != board.getNumPairs()) {
+                return "game " + (game + 1) + ": the scores add up to " + total + " of " + board.getNumPairs() + " pairs";
+            }
+        }
+        return null;
+    }
+}
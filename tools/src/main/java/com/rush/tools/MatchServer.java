@@ -0,0 +1,399 @@
+package com.rush.tools;
+
+import com.rush.GameBoard;
+import com.rush.LevelProgression;
+import com.rush.MatchProtocol;
+import com.rush.PlayerTurns;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hosts networked matches of the game: the players joining for the same number of players get
+ * grouped into a match, which then goes through the levels, every level dealt from a fresh seed.
+ *
+ * The server keeps the board of every match and checks every flip against it and the turns,
+ * so a player can only flip on its turn and only the cards the board takes; the accepted flips
+ * go to all the players of the match, the others get rejected to the flipping player only.
+ * Every connection is served by a blocking reading task and a blocking writing task of its own,
+ * on virtual threads where the JVM has them (Java 21+) and on a cached thread pool otherwise.
+ * The matches only queue the messages for the writing tasks, so a player who stops reading
+ * never holds up the others, and gets disconnected once its queue is full. The locks are
+ * ReentrantLocks, which do not pin the virtual threads to their carriers.
+ *
+ * Usage: MatchServer [--port N] [--levels 3x2,+1x+1]
+ */
+public class MatchServer {
+    private static final String DEFAULT_LEVELS = "3x2,+1x+1";
+    //  the messages queued for a player, who does not read them
+    private static final int OUTBOX_SIZE = 256;
+    //  queued after the last message to a player, to hang up once it is out
+    private static final byte[] HANG_UP = new byte[0];
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor;
+    private final LevelProgression mLevels;
+    private final Random mSeedGenerator = new Random();
+
+    //  the matches waiting for players, by the number of players
+    private final Map<Integer, Match> mLobby = new HashMap<Integer, Match>();
+    private final ReentrantLock mLobbyLock = new ReentrantLock();
+
+    private final AtomicLong mNumMatches = new AtomicLong();
+    private final AtomicLong mNumGames = new AtomicLong();
+    private final AtomicLong mNumFlips = new AtomicLong();
+    private final AtomicLong mNumRejects = new AtomicLong();
+
+    /**
+     * A connected player
+     */
+    class Connection implements Runnable {
+        private final Socket mSocket;
+        private final OutputStream mOut;
+        private final BlockingQueue<byte[]> mOutbox = new ArrayBlockingQueue<byte[]>(OUTBOX_SIZE);
+        private Match mMatch;
+        private int mPlayer;
+
+        Connection(Socket socket) throws IOException {
+            mSocket = socket;
+            mSocket.setTcpNoDelay(true);
+            mOut = socket.getOutputStream();
+        }
+
+        public void run() {
+            mExecutor.execute(new Runnable() {
+                public void run() {
+                    writeLoop();
+                }
+            });
+            try {
+                InputStream in = new BufferedInputStream(mSocket.getInputStream());
+                MatchProtocol.Message msg = new MatchProtocol.Message();
+                if (!MatchProtocol.read(in, msg) || msg.mType != MatchProtocol.MSG_JOIN
+                        || msg.mVersion != MatchProtocol.VERSION
+                        || msg.mNumPlayers < 1 || msg.mNumPlayers > PlayerTurns.MAX_PLAYERS) {
+                    return;
+                }
+                join(this, msg.mNumPlayers);
+                while (MatchProtocol.read(in, msg)) {
+                    if (msg.mType != MatchProtocol.MSG_FLIP) {
+                        break;
+                    }
+                    mMatch.flip(this, msg.mCardIdx);
+                }
+            } catch (IOException e) {
+                //  the player is gone
+            } finally {
+                if (mMatch != null) {
+                    leave(mMatch);
+                    mMatch.close(this);
+                }
+                close();
+                //  lets the writing task go
+                mOutbox.offer(HANG_UP);
+            }
+        }
+
+        /**
+         * Writes the queued messages until the hang up, or until the player is gone
+         */
+        void writeLoop() {
+            try {
+                while (true) {
+                    byte[] message = mOutbox.take();
+                    if (message == HANG_UP) {
+                        break;
+                    }
+                    mOut.write(message);
+                }
+            } catch (IOException e) {
+                //  the player is gone, the reading task finds out as well
+            } catch (InterruptedException e) {
+                //  the server is closing
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Queues the message for the writing task, never blocks.
+         * A player, whose queue is full, gets disconnected.
+         */
+        void send(byte[] message) {
+            if (!mOutbox.offer(message)) {
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                //  nothing to do about it
+            }
+        }
+    }
+
+    /**
+     * The board shared by the players, every method runs under the match lock,
+     * so the flips get checked and queued for the players in one order.
+     * The messages get encoded in memory, so the IOExceptions of the encoding never happen.
+     */
+    class Match {
+        private final Connection[] mPlayers;
+        private int mNumJoined = 0;
+        private boolean mIsClosed = false;
+        private final GameBoard mBoard = new GameBoard();
+        private final PlayerTurns mTurns = new PlayerTurns();
+        private final int[] mNextSize = new int[2];
+        private final ReentrantLock mLock = new ReentrantLock();
+        private final ByteArrayOutputStream mMessage = new ByteArrayOutputStream(32);
+
+        Match(int numPlayers) {
+            mPlayers = new Connection[numPlayers];
+        }
+
+        /**
+         * Adds the player, returns whether the match is full now
+         */
+        boolean add(Connection connection) throws IOException {
+            mLock.lock();
+            try {
+                connection.mMatch = this;
+                connection.mPlayer = mNumJoined;
+                mPlayers[mNumJoined++] = connection;
+                if (mNumJoined < mPlayers.length) {
+                    return false;
+                }
+                mNumMatches.incrementAndGet();
+                deal(mLevels.getFirstW(), mLevels.getFirstH());
+                return true;
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        private void deal(int numCardsW, int numCardsH) throws IOException {
+            //  Random is thread safe, without a lock of its own
+            long seed = mSeedGenerator.nextLong();
+            mBoard.setSeed(seed);
+            mBoard.startGame(numCardsW, numCardsH);
+            mTurns.start(mPlayers.length);
+            for (Connection player : mPlayers) {
+                MatchProtocol.writeDeal(mMessage, seed, numCardsW, numCardsH, mPlayers.length, player.mPlayer);
+                send(player);
+            }
+        }
+
+        void flip(Connection connection, int cardIdx) throws IOException {
+            mLock.lock();
+            try {
+                if (mIsClosed) {
+                    return;
+                }
+                int result = GameBoard.FLIP_IGNORED;
+                if (mNumJoined == mPlayers.length && connection.mPlayer == mTurns.getCurrentPlayer()
+                        && cardIdx >= 0 && cardIdx < mBoard.getNumCells()) {
+                    result = mBoard.flip(cardIdx);
+                }
+                if (result == GameBoard.FLIP_IGNORED) {
+                    mNumRejects.incrementAndGet();
+                    MatchProtocol.writeReject(mMessage, cardIdx);
+                    send(connection);
+                    return;
+                }
+                mNumFlips.incrementAndGet();
+                mTurns.onFlipped(result);
+                MatchProtocol.writeFlip(mMessage, connection.mPlayer, cardIdx);
+                sendToAll();
+                if (mBoard.isGameOver()) {
+                    mNumGames.incrementAndGet();
+                    mLevels.getNextSize(mBoard.getNumCardsW(), mBoard.getNumCardsH(), mNextSize);
+                    deal(mNextSize[0], mNextSize[1]);
+                }
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        /**
+         * Ends the match once any of the players leaves, the rest get told and disconnected
+         */
+        void close(Connection leaving) {
+            mLock.lock();
+            try {
+                if (mIsClosed) {
+                    return;
+                }
+                mIsClosed = true;
+                for (int i = 0; i < mNumJoined; i++) {
+                    Connection player = mPlayers[i];
+                    if (player != leaving) {
+                        try {
+                            MatchProtocol.writeLeft(mMessage, leaving.mPlayer);
+                        } catch (IOException e) {
+                            //  can not happen with an in-memory stream
+                        }
+                        send(player);
+                        player.send(HANG_UP);
+                    }
+                }
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        private void send(Connection player) {
+            player.send(mMessage.toByteArray());
+            mMessage.reset();
+        }
+
+        private void sendToAll() {
+            byte[] message = mMessage.toByteArray();
+            mMessage.reset();
+            for (Connection player : mPlayers) {
+                player.send(message);
+            }
+        }
+    }
+
+    public MatchServer(int port, LevelProgression levels) throws IOException {
+        mServerSocket = new ServerSocket(port);
+        mLevels = levels;
+        mExecutor = newTaskExecutor();
+    }
+
+    /**
+     * An executor starting a virtual thread per task if the JVM has them, it is looked up
+     * by reflection, so that the tools still build and run on the older JVMs
+     */
+    static ExecutorService newTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    public long getNumMatches() {
+        return mNumMatches.get();
+    }
+
+    public long getNumGames() {
+        return mNumGames.get();
+    }
+
+    public long getNumFlips() {
+        return mNumFlips.get();
+    }
+
+    public long getNumRejects() {
+        return mNumRejects.get();
+    }
+
+    /**
+     * Starts accepting the players, returns right away
+     */
+    public void start() {
+        mExecutor.execute(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    /**
+     * Accepts the players until the server gets closed
+     */
+    void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                //  closed
+                break;
+            }
+            try {
+                mExecutor.execute(new Connection(socket));
+            } catch (IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException e2) {
+                    //  nothing to do about it
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting the players, the running matches get disconnected
+     */
+    public void close() throws IOException {
+        mServerSocket.close();
+        mExecutor.shutdownNow();
+    }
+
+    private void join(Connection connection, int numPlayers) throws IOException {
+        mLobbyLock.lock();
+        try {
+            Match match = mLobby.get(numPlayers);
+            if (match == null) {
+                match = new Match(numPlayers);
+                mLobby.put(numPlayers, match);
+            }
+            if (match.add(connection)) {
+                mLobby.remove(numPlayers);
+            }
+        } finally {
+            mLobbyLock.unlock();
+        }
+    }
+
+    private void leave(Match match) {
+        mLobbyLock.lock();
+        try {
+            for (Map.Entry<Integer, Match> entry : mLobby.entrySet()) {
+                if (entry.getValue() == match) {
+                    mLobby.remove(entry.getKey());
+                    break;
+                }
+            }
+        } finally {
+            mLobbyLock.unlock();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = MatchProtocol.DEFAULT_PORT;
+        String levels = DEFAULT_LEVELS;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--levels") && i + 1 < args.length) {
+                levels = args[++i];
+            } else {
+                System.err.println("Usage: MatchServer [--port N] [--levels 3x2,+1x+1]");
+                System.exit(2);
+            }
+        }
+        MatchServer server = new MatchServer(port, LevelProgression.parse(levels));
+        System.out.println("Serving the matches on port " + server.getPort());
+        //  the virtual threads do not keep the JVM running, so the main thread accepts
+        server.acceptLoop();
+    }
+}
@@ -0,0 +1,260 @@
+package com.rush.tools;
+
+import com.rush.GameBoard;
+import com.rush.MemoryPlayer;
+
+import java.io.*;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays lots of games with MemoryPlayer for the numbers of pairs the game can deal, in parallel
+ * on a fork-join pool, and derives the miss thresholds the game colors the misses counter by:
+ *   good - at most the 90th percentile of the misses of a player with perfect recall
+ *   bad  - more than the median misses of a player remembering only FORGETFUL_MEMORY_SIZE cards
+ * Every number of pairs up to the number of faces gets simulated, the larger boards (which deal
+ * the faces over again) get sampled a quarter larger every time, up to the board size limit,
+ * with fewer games the larger the board, and the game interpolates between the samples.
+ * The games are dealt from seeds derived from the game number, so the output is reproducible.
+ *
+ * Usage: MissSimulator [--games N] [--out src/com/rush/MissThresholds.java]
+ */
+public class MissSimulator {
+    private static final int DEFAULT_NUM_GAMES = 10000;
+    private static final int FORGETFUL_MEMORY_SIZE = 8;
+    private static final int[] MEMORY_SIZES = { MemoryPlayer.PERFECT_RECALL, 16, FORGETFUL_MEMORY_SIZE };
+    private static final long SEED = 0x4D697373L;
+    //  the fewest games of a sampled board size
+    private static final int MIN_SAMPLE_GAMES = 500;
+
+    //  the games per fork-join leaf task
+    private static final int LEAF_GAMES = 256;
+
+    /**
+     * Plays a range of games, returns the histogram of the misses
+     */
+    static class SimulationTask extends RecursiveTask<int[]> {
+        private final int mNumPairs;
+        private final int mMemorySize;
+        private final int mFirstGame;
+        private final int mNumGames;
+
+        SimulationTask(int numPairs, int memorySize, int firstGame, int numGames) {
+            mNumPairs = numPairs;
+            mMemorySize = memorySize;
+            mFirstGame = firstGame;
+            mNumGames = numGames;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (mNumGames > LEAF_GAMES) {
+                int half = mNumGames/2;
+                SimulationTask left = new SimulationTask(mNumPairs, mMemorySize, mFirstGame, half);
+                SimulationTask right = new SimulationTask(mNumPairs, mMemorySize, mFirstGame + half, mNumGames - half);
+                left.fork();
+                int[] rightHist = right.compute();
+                return merge(left.join(), rightHist);
+            }
+            GameBoard board = new GameBoard();
+            Random random = new Random();
+            MemoryPlayer player = new MemoryPlayer(mMemorySize, random);
+            int[] hist = new int[mNumPairs*4];
+            for (int game = mFirstGame; game < mFirstGame + mNumGames; game++) {
+                //  the same deals for every memory size
+                long gameSeed = SEED ^ ((long) mNumPairs << 32) ^ game;
+                board.setSeed(gameSeed);
+                random.setSeed(~gameSeed);
+                board.startGame(mNumPairs*2, 1);
+                int numMisses = player.playGame(board);
+                if (numMisses >= hist.length) {
+                    int[] newHist = new int[Math.max(hist.length*2, numMisses + 1)];
+                    System.arraycopy(hist, 0, newHist, 0, hist.length);
+                    hist = newHist;
+                }
+                hist[numMisses]++;
+            }
+            return hist;
+        }
+    }
+
+    static int[] merge(int[] a, int[] b) {
+        if (a.length < b.length) {
+            int[] t = a;
+            a = b;
+            b = t;
+        }
+        for (int i = 0; i < b.length; i++) {
+            a[i] += b[i];
+        }
+        return a;
+    }
+
+    static int getPercentile(int[] hist, int percent) {
+        long total = 0;
+        for (int count : hist) {
+            total += count;
+        }
+        long rank = (total*percent + 99)/100;
+        long seen = 0;
+        for (int i = 0; i < hist.length; i++) {
+            seen += hist[i];
+            if (seen >= rank && seen > 0) {
+                return i;
+            }
+        }
+        return hist.length - 1;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int numGames = DEFAULT_NUM_GAMES;
+        String outFileName = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--games") && i + 1 < args.length) {
+                numGames = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--out") && i + 1 < args.length) {
+                outFileName = args[++i];
+            } else {
+                System.err.println("Usage: MissSimulator [--games N] [--out MissThresholds.java]");
+                System.exit(2);
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool();
+        int[] pairs = getSimulatedPairs();
+        int[] goodMisses = new int[pairs.length];
+        int[] badMisses = new int[pairs.length];
+        long numPlayed = 0;
+        long startTime = System.nanoTime();
+        System.out.print("pairs");
+        for (int memorySize : MEMORY_SIZES) {
+            String name = (memorySize == MemoryPlayer.PERFECT_RECALL) ? "perfect" : "mem" + memorySize;
+            System.out.print("\t" + name + " p10/p50/p90");
+        }
+        System.out.println("\tgood\tbad");
+        //  no misses without any pairs
+        for (int i = 1; i < pairs.length; i++) {
+            int numPairs = pairs[i];
+            //  a game takes about as long as the board has pairs
+            int numSizeGames = (numPairs <= GameBoard.NUM_VARIATIONS) ? numGames : Math.min(numGames,
+                    Math.max((int) ((long) numGames*GameBoard.NUM_VARIATIONS/numPairs), MIN_SAMPLE_GAMES));
+            StringBuilder line = new StringBuilder().append(numPairs);
+            for (int memorySize : MEMORY_SIZES) {
+                int[] hist = pool.invoke(new SimulationTask(numPairs, memorySize, 0, numSizeGames));
+                line.append('\t').append(getPercentile(hist, 10)).append('/').append(getPercentile(hist, 50))
+                        .append('/').append(getPercentile(hist, 90));
+                if (memorySize == MemoryPlayer.PERFECT_RECALL) {
+                    goodMisses[i] = getPercentile(hist, 90);
+                } else if (memorySize == FORGETFUL_MEMORY_SIZE) {
+                    badMisses[i] = Math.max(getPercentile(hist, 50), goodMisses[i] + 1);
+                }
+            }
+            numPlayed += (long) numSizeGames*MEMORY_SIZES.length;
+            line.append('\t').append(goodMisses[i]).append('\t').append(badMisses[i]);
+            System.out.println(line);
+        }
+        System.out.printf(Locale.US, "%d games on %d threads in %.1f s%n", numPlayed, pool.getParallelism(),
+                (System.nanoTime() - startTime)/1e9);
+
+        if (outFileName != null) {
+            writeThresholds(new File(outFileName), pairs, goodMisses, badMisses, numGames);
+            System.out.println("Thresholds written to " + outFileName);
+        }
+    }
+
+    /**
+     * Every number of pairs up to the number of faces, then the larger ones a quarter apart,
+     * up to the largest board
+     */
+    static int[] getSimulatedPairs() {
+        int maxPairs = GameBoard.MAX_NUM_CELLS/2;
+        int numSizes = GameBoard.NUM_VARIATIONS + 1;
+        for (int numPairs = GameBoard.NUM_VARIATIONS; numPairs < maxPairs; numSizes++) {
+            numPairs = Math.min(numPairs + numPairs/4, maxPairs);
+        }
+        int[] pairs = new int[numSizes];
+        for (int i = 1; i < numSizes; i++) {
+            pairs[i] = (i <= GameBoard.NUM_VARIATIONS) ? i : Math.min(pairs[i - 1] + pairs[i - 1]/4, maxPairs);
+        }
+        return pairs;
+    }
+
+    static void writeThresholds(File file, int[] pairs, int[] goodMisses, int[] badMisses, int numGames)
+            throws IOException {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            out.println("package com.rush;");
+            out.println();
+            out.println("import java.util.Arrays;");
+            out.println();
+            out.println("/**");
+            out.println(" * Miss thresholds by the number of pairs, simulated with MemoryPlayer: for every number");
+            out.println(" * of pairs up to " + GameBoard.NUM_VARIATIONS + ", and for the larger boards (up to the "
+                    + GameBoard.MAX_NUM_CELLS/2 + " pairs of the largest one)");
+            out.println(" * at the sampled sizes, interpolated linearly in between.");
+            out.println(" * Generated by com.rush.tools.MissSimulator (" + numGames
+                    + " games per size, less on the sampled ones), do not edit.");
+            out.println(" */");
+            out.println("public final class MissThresholds {");
+            out.println("    private MissThresholds() {");
+            out.println("    }");
+            out.println();
+            writeTable(out, "PAIRS", "the simulated numbers of pairs", pairs);
+            out.println();
+            writeTable(out, "GOOD_MISSES", "at most the 90th percentile of a player with perfect recall", goodMisses);
+            out.println();
+            writeTable(out, "BAD_MISSES", "more than the median of a player remembering "
+                    + FORGETFUL_MEMORY_SIZE + " cards", badMisses);
+            out.println();
+            out.println("    /**");
+            out.println("     * The misses are still good for the number of pairs, if there are at most that many");
+            out.println("     */");
+            out.println("    public static int getGoodMisses(int numPairs) {");
+            out.println("        return lookup(GOOD_MISSES, numPairs);");
+            out.println("    }");
+            out.println();
+            out.println("    /**");
+            out.println("     * The misses are bad for the number of pairs, if there are more than that");
+            out.println("     */");
+            out.println("    public static int getBadMisses(int numPairs) {");
+            out.println("        return lookup(BAD_MISSES, numPairs);");
+            out.println("    }");
+            out.println();
+            out.println("    private static int lookup(int[] table, int numPairs) {");
+            out.println("        int i = Arrays.binarySearch(PAIRS, numPairs);");
+            out.println("        if (i >= 0) {");
+            out.println("            return table[i];");
+            out.println("        }");
+            out.println("        //  the first sample above");
+            out.println("        i = -i - 1;");
+            out.println("        if (i == 0) {");
+            out.println("            return table[0];");
+            out.println("        }");
+            out.println("        if (i == PAIRS.length) {");
+            out.println("            //  over the board size limit, which never gets dealt");
+            out.println("            return table[i - 1];");
+            out.println("        }");
+            out.println("        return table[i - 1] + (int) ((long) (table[i] - table[i - 1])*(numPairs - PAIRS[i - 1])");
+            out.println("                /(PAIRS[i] - PAIRS[i - 1]));");
+            out.println("    }");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    static void writeTable(PrintWriter out, String name, String comment, int[] values) {
+        out.println("    //  " + comment);
+        out.println("    private static final int[] " + name + " = {");
+        for (int i = 0; i < values.length; i += 12) {
+            StringBuilder line = new StringBuilder("           ");
+            for (int j = i; j < Math.min(i + 12, values.length); j++) {
+                line.append(' ').append(values[j]).append(',');
+            }
+            out.println(line);
+        }
+        out.println("    };");
+    }
+}
@@ -0,0 +1,100 @@
+package com.rush.tools;
+
+import com.rush.GameBoard;
+import com.rush.GameRecord;
+import com.rush.GameReplay;
+
+import java.io.*;
+
+/**
+ * Replays a session record saved by the game (memylon-record.bin) against the game logic,
+ * without any rendering, and reports how every game went.
+ *
+ * By default the events are applied as fast as possible, and the replay is timed.
+ * With --realtime the events are applied at their recorded pace instead.
+ * The flips before the first game belong to a game restored before the record started, and get skipped.
+ * Exits with 1 if a flip did not change the board as it did when recorded.
+ *
+ * Usage: ReplayTool [--realtime] memylon-record.bin
+ */
+public class ReplayTool {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean isRealTime = false;
+        String fileName = null;
+        for (String arg : args) {
+            if (arg.equals("--realtime")) {
+                isRealTime = true;
+            } else {
+                fileName = arg;
+            }
+        }
+        if (fileName == null) {
+            System.err.println("Usage: ReplayTool [--realtime] <record.bin>");
+            System.exit(2);
+        }
+
+        GameReplay replay = new GameReplay(readFile(new File(fileName)));
+        GameBoard board = new GameBoard();
+        int numGames = 0;
+        int numFlips = 0;
+        int numDiverged = 0;
+        int firstEvent = replay.getFirstGameEvent();
+        if (firstEvent > 0) {
+            System.out.println(firstEvent + " flips before the first game skipped");
+        }
+        long startTime = System.nanoTime();
+        for (int i = firstEvent; i < replay.getNumEvents(); i++) {
+            if (isRealTime) {
+                long delay = replay.getEventTime(i) - replay.getEventTime(firstEvent)
+                        - (System.nanoTime() - startTime)/1000000;
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+            }
+            if (replay.getEventType(i) != GameRecord.EVENT_FLIP) {
+                if (numGames > 0) {
+                    report(numGames, board);
+                }
+                numGames++;
+                replay.apply(i, board);
+            } else {
+                numFlips++;
+                if (replay.apply(i, board) == GameBoard.FLIP_IGNORED) {
+                    numDiverged++;
+                    System.out.println("event " + i + ": flip of card " + replay.getCardIdx(i) + " got ignored");
+                }
+            }
+        }
+        long replayTime = System.nanoTime() - startTime;
+        if (numGames > 0) {
+            report(numGames, board);
+        }
+        System.out.printf("%d events, %d games, %d flips replayed in %.3f ms%n",
+                replay.getNumEvents(), numGames, numFlips, replayTime/1e6);
+        if (numDiverged > 0) {
+            System.out.println(numDiverged + " flips diverged from the record");
+            System.exit(1);
+        }
+    }
+
+    static void report(int game, GameBoard board) {
+        System.out.println("game " + game + ": " + board.getNumCardsW() + "x" + board.getNumCardsH()
+                + ", " + board.getNumMatchedPairs() + "/" + board.getNumPairs() + " pairs, "
+                + board.getNumMisses() + " misses" + (board.isGameOver() ? ", won" : ""));
+    }
+
+    static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                bytes.write(buf, 0, len);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.rush;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.Test;
+
+public class CardInfoTableTest {
+    @Test
+    public void readsTheEntries() throws IOException {
+        CardInfoTable table = new CardInfoTable(ByteBuffer.wrap(buildTable(
+                new int[] { 1972, 0 },
+                new String[] { "C", "Unnamed" },
+                new String[] { "https://example.com/c", "" },
+                new String[] { "Fun fact, with a é", "" })));
+        assertEquals(2, table.size());
+        assertEquals(1972, table.getYear(0));
+        assertEquals("C", table.getName(0));
+        assertEquals("https://example.com/c", table.getUrl(0));
+        assertEquals("Fun fact, with a é", table.getFunFact(0));
+        assertEquals(0, table.getYear(1));
+        assertEquals("Unnamed", table.getName(1));
+        assertEquals("", table.getUrl(1));
+        assertEquals("", table.getFunFact(1));
+    }
+
+    @Test
+    public void rejectsDamagedTables() throws IOException {
+        byte[] data = buildTable(new int[] { 1 }, new String[] { "a" }, new String[] { "b" }, new String[] { "c" });
+
+        byte[] badMagic = data.clone();
+        badMagic[0] = 0;
+        assertBad(badMagic);
+
+        byte[] badVersion = data.clone();
+        badVersion[7] = 2;
+        assertBad(badVersion);
+
+        //  more entries than offsets
+        byte[] badCount = data.clone();
+        badCount[9] = 1;
+        assertBad(badCount);
+
+        assertBad(new byte[4]);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsEntriesOutOfRange() throws IOException {
+        new CardInfoTable(ByteBuffer.wrap(buildTable(new int[0], new String[0], new String[0], new String[0])))
+                .getName(0);
+    }
+
+    @Test
+    public void readsTheShippedTable() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File("../assets/languages.bin"), "r");
+        try {
+            FileChannel channel = file.getChannel();
+            CardInfoTable table = new CardInfoTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            assertEquals(GameBoard.NUM_VARIATIONS, table.size());
+            for (int i = 0; i < table.size(); i++) {
+                if (table.getName(i).length() == 0) {
+                    fail("Card info entry " + i + " has no name");
+                }
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static byte[] buildTable(int[] years, String[] names, String[] urls, String[] funFacts)
+            throws IOException {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream entriesOut = new DataOutputStream(entries);
+        int[] offsets = new int[years.length];
+        int headerSize = CardInfoTable.HEADER_SIZE + years.length*4;
+        for (int i = 0; i < years.length; i++) {
+            offsets[i] = headerSize + entriesOut.size();
+            entriesOut.writeShort(years[i]);
+            writeString(entriesOut, names[i]);
+            writeString(entriesOut, urls[i]);
+            writeString(entriesOut, funFacts[i]);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CardInfoTable.MAGIC);
+        out.writeInt(CardInfoTable.VERSION);
+        out.writeInt(years.length);
+        for (int i = 0; i < offsets.length; i++) {
+            out.writeInt(offsets[i]);
+        }
+        entriesOut.flush();
+        out.write(entries.toByteArray());
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] utf8 = s.getBytes("UTF-8");
+        out.writeShort(utf8.length);
+        out.write(utf8);
+    }
+
+    private static void assertBad(byte[] data) {
+        try {
+            new CardInfoTable(ByteBuffer.wrap(data));
+            fail();
+        } catch (IllegalArgumentException e) {
+            //  expected
+        }
+    }
+}
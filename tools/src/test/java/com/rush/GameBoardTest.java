@@ -0,0 +1,358 @@
+package com.rush;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GameBoardTest {
+    //  offsets into the saveState() snapshot
+    private static final int SNAPSHOT_STATE = 5;
+    private static final int SNAPSHOT_FLIPPED = 6;
+    private static final int SNAPSHOT_MISSES = 8;
+    private static final int SNAPSHOT_PAIRS = 12;
+    private static final int SNAPSHOT_CARDS = 14;
+
+    @Test
+    public void dealsTheSameCardsFromTheSameSeed() {
+        GameBoard board1 = new GameBoard(42);
+        GameBoard board2 = new GameBoard(42);
+        for (int game = 0; game < 5; game++) {
+            board1.startGame(6, 5);
+            board2.startGame(6, 5);
+            assertArrayEquals(getCards(board1), getCards(board2));
+        }
+        board2.setSeed(42);
+        board2.startGame(6, 5);
+        board1.setSeed(42);
+        board1.startGame(6, 5);
+        assertArrayEquals(getCards(board1), getCards(board2));
+    }
+
+    @Test
+    public void dealsEveryFaceInPairs() {
+        GameBoard board = new GameBoard(7);
+        board.startGame(5, 3);
+        assertEquals(7, board.getNumPairs());
+        assertEquals(7, board.getNumRemainingPairs());
+        assertEquals(14, board.getNumFaceDownCards());
+        int numEmpty = 0;
+        for (int i = 0; i < board.getNumCells(); i++) {
+            int card = board.getCard(i);
+            if (card == 0) {
+                numEmpty++;
+                continue;
+            }
+            assertTrue(card < 0);
+            int partner = board.getPartnerIdx(i);
+            assertTrue(partner != -1 && partner != i);
+            assertEquals(card, board.getCard(partner));
+        }
+        //  the odd cell
+        assertEquals(1, numEmpty);
+    }
+
+    @Test
+    public void rejectsBadSizes() {
+        assertFalse(GameBoard.isValidSize(1, 1));
+        assertFalse(GameBoard.isValidSize(0, 4));
+        assertFalse(GameBoard.isValidSize(4, -1));
+        assertFalse(GameBoard.isValidSize(129, 128));
+        assertFalse(GameBoard.isValidSize(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertTrue(GameBoard.isValidSize(2, 1));
+        assertTrue(GameBoard.isValidSize(128, 128));
+        try {
+            new GameBoard(1).startGame(1, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //  expected
+        }
+    }
+
+    @Test
+    public void countsTheMisses() {
+        GameBoard board = new GameBoard(3);
+        board.startGame(4, 3);
+        int first = 0;
+        int other = findOtherFace(board, first);
+        assertEquals(GameBoard.FLIP_FIRST, board.flip(first));
+        assertEquals(GameBoard.STATE_ONE_CARD_FLIPPED, board.getState());
+        assertEquals(first, board.getFlippedCardIdx());
+        assertTrue(board.getCard(first) > 0);
+        //  the face up card does not flip again
+        assertEquals(GameBoard.FLIP_IGNORED, board.flip(first));
+
+        assertEquals(GameBoard.FLIP_MISS, board.flip(other));
+        assertEquals(GameBoard.STATE_NO_CARD_FLIPPED, board.getState());
+        assertEquals(-1, board.getFlippedCardIdx());
+        assertEquals(first, board.getPrevFlippedCardIdx());
+        assertEquals(1, board.getNumMisses());
+        assertTrue(board.getCard(first) < 0);
+        assertTrue(board.getCard(other) < 0);
+        assertEquals(12, board.getNumFaceDownCards());
+    }
+
+    @Test
+    public void endsTheGameWithTheLastMatch() {
+        GameBoard board = new GameBoard(11);
+        board.startGame(4, 4);
+        int numPairs = board.getNumPairs();
+        for (int pair = 1; pair <= numPairs; pair++) {
+            int first = findCardLeft(board);
+            int partner = board.getPartnerIdx(first);
+            assertEquals(GameBoard.FLIP_FIRST, board.flip(first));
+            int result = board.flip(partner);
+            assertEquals(pair == numPairs ? GameBoard.FLIP_WIN : GameBoard.FLIP_MATCH, result);
+            assertEquals(0, board.getCard(first));
+            assertEquals(0, board.getCard(partner));
+            assertEquals(pair, board.getNumMatchedPairs());
+        }
+        assertTrue(board.isGameOver());
+        assertEquals(0, board.getNumMisses());
+        assertEquals(0, board.getNumFaceDownCards());
+        assertEquals(GameBoard.FLIP_IGNORED, board.flip(0));
+    }
+
+    @Test
+    public void findsThePartnersOfTheCardsLeft() {
+        //  the faces get dealt over and over on the boards this size
+        GameBoard board = new GameBoard(23);
+        board.startGame(64, 64);
+        Random random = new Random(23);
+        while (!board.isGameOver()) {
+            for (int n = 0; n < 50; n++) {
+                int cardIdx = random.nextInt(board.getNumCells());
+                int partner = board.getPartnerIdx(cardIdx);
+                int card = board.getCard(cardIdx);
+                if (card == 0) {
+                    assertEquals(-1, partner);
+                } else {
+                    assertTrue(partner != cardIdx);
+                    assertEquals(Math.abs(card), Math.abs(board.getCard(partner)));
+                }
+                int face = 1 + random.nextInt(GameBoard.NUM_VARIATIONS);
+                int position = board.getFacePosition(face);
+                if (position == -1) {
+                    assertFalse(isFaceLeft(board, face));
+                } else {
+                    assertEquals(face, Math.abs(board.getCard(position)));
+                }
+            }
+            int first = findRandomCardLeft(board, random);
+            board.flip(first);
+            board.flip(board.getPartnerIdx(first));
+        }
+    }
+
+    @Test
+    public void ignoresTheFlipsOffTheBoard() {
+        GameBoard board = new GameBoard(5);
+        board.startGame(3, 2);
+        assertEquals(GameBoard.FLIP_IGNORED, board.flip(-1));
+        assertEquals(GameBoard.FLIP_IGNORED, board.flip(6));
+        assertEquals(GameBoard.STATE_NO_CARD_FLIPPED, board.getState());
+    }
+
+    @Test
+    public void restoresEverySavedState() throws IOException {
+        GameBoard board = new GameBoard(13);
+        board.startGame(5, 5);
+        GameBoard restored = new GameBoard(0);
+        int idx = 0;
+        while (!board.isGameOver()) {
+            byte[] snapshot = board.saveState();
+            restored.restoreState(snapshot);
+            assertBoardsEqual(board, restored);
+            assertArrayEquals(snapshot, restored.saveState());
+            //  alternate the misses and the matches
+            if (board.getState() == GameBoard.STATE_ONE_CARD_FLIPPED && (idx++ & 1) == 0) {
+                board.flip(board.getPartnerIdx(board.getFlippedCardIdx()));
+            } else {
+                board.flip(findCardLeft(board));
+            }
+        }
+        restored.restoreState(board.saveState());
+        assertBoardsEqual(board, restored);
+        assertTrue(restored.isGameOver());
+    }
+
+    @Test
+    public void playsOnFromTheRestoredState() throws IOException {
+        GameBoard board = new GameBoard(17);
+        board.startGame(4, 3);
+        int first = findCardLeft(board);
+        board.flip(first);
+        GameBoard restored = new GameBoard(0);
+        restored.restoreState(board.saveState());
+        int partner = board.getPartnerIdx(first);
+        assertEquals(board.flip(partner), restored.flip(partner));
+        assertBoardsEqual(board, restored);
+    }
+
+    @Test
+    public void rejectsCorruptSnapshots() {
+        GameBoard board = new GameBoard(19);
+        board.startGame(4, 3);
+        byte[] snapshot = board.saveState();
+
+        byte[] oneCell = new byte[] { 1, 0, 1, 0, 1, GameBoard.STATE_NO_CARD_FLIPPED, -1, -1, 0, 0, 0, 0, 0, 0, 0, 0 };
+        assertCorrupt(board, oneCell);
+
+        byte[] truncated = new byte[snapshot.length - 1];
+        System.arraycopy(snapshot, 0, truncated, 0, truncated.length);
+        assertCorrupt(board, truncated);
+
+        byte[] badVersion = snapshot.clone();
+        badVersion[0] = 99;
+        assertCorrupt(board, badVersion);
+
+        byte[] badState = snapshot.clone();
+        badState[SNAPSHOT_STATE] = 3;
+        assertCorrupt(board, badState);
+
+        //  one card flipped, but no flipped card index
+        byte[] noFlippedCard = snapshot.clone();
+        noFlippedCard[SNAPSHOT_STATE] = GameBoard.STATE_ONE_CARD_FLIPPED;
+        assertCorrupt(board, noFlippedCard);
+
+        //  a flipped card index lying face down
+        byte[] faceDownFlipped = noFlippedCard.clone();
+        faceDownFlipped[SNAPSHOT_FLIPPED] = 0;
+        faceDownFlipped[SNAPSHOT_FLIPPED + 1] = 0;
+        assertCorrupt(board, faceDownFlipped);
+
+        byte[] flippedOffBoard = snapshot.clone();
+        flippedOffBoard[SNAPSHOT_FLIPPED] = 0;
+        flippedOffBoard[SNAPSHOT_FLIPPED + 1] = 12;
+        assertCorrupt(board, flippedOffBoard);
+
+        byte[] negativeMisses = snapshot.clone();
+        negativeMisses[SNAPSHOT_MISSES] = -1;
+        assertCorrupt(board, negativeMisses);
+
+        byte[] tooFewPairs = snapshot.clone();
+        tooFewPairs[SNAPSHOT_PAIRS + 1] = 5;
+        assertCorrupt(board, tooFewPairs);
+
+        byte[] tooManyPairs = snapshot.clone();
+        tooManyPairs[SNAPSHOT_PAIRS + 1] = 7;
+        assertCorrupt(board, tooManyPairs);
+
+        byte[] badFace = snapshot.clone();
+        badFace[SNAPSHOT_CARDS] = 0x7F;
+        assertCorrupt(board, badFace);
+
+        //  a card face up besides the flipped one
+        byte[] faceUp = snapshot.clone();
+        setCard(faceUp, 0, -board.getCard(0));
+        assertCorrupt(board, faceUp);
+
+        //  a face left without its pair
+        byte[] oddFace = snapshot.clone();
+        setCard(oddFace, 0, board.getCard(findOtherFace(board, 0)));
+        assertCorrupt(board, oddFace);
+
+        byte[] overWithCardsLeft = snapshot.clone();
+        overWithCardsLeft[SNAPSHOT_STATE] = GameBoard.STATE_GAME_OVER;
+        assertCorrupt(board, overWithCardsLeft);
+
+        //  no cards left, but the game goes on
+        byte[] noCardsLeft = snapshot.clone();
+        for (int i = 0; i < board.getNumCells(); i++) {
+            setCard(noCardsLeft, i, 0);
+        }
+        assertCorrupt(board, noCardsLeft);
+        noCardsLeft[SNAPSHOT_STATE] = GameBoard.STATE_GAME_OVER;
+        GameBoard over = new GameBoard(0);
+        try {
+            over.restoreState(noCardsLeft);
+        } catch (IOException e) {
+            fail("Rejected a won board");
+        }
+        assertTrue(over.isGameOver());
+    }
+
+    private static void setCard(byte[] snapshot, int cardIdx, int card) {
+        snapshot[SNAPSHOT_CARDS + cardIdx*2] = (byte) (card >> 8);
+        snapshot[SNAPSHOT_CARDS + cardIdx*2 + 1] = (byte) card;
+    }
+
+    private static void assertCorrupt(GameBoard board, byte[] snapshot) {
+        byte[] before = board.saveState();
+        try {
+            board.restoreState(snapshot);
+            fail();
+        } catch (IOException e) {
+            //  expected, and the board stays as it was
+        }
+        assertArrayEquals(before, board.saveState());
+    }
+
+    private static void assertBoardsEqual(GameBoard expected, GameBoard actual) {
+        assertEquals(expected.getNumCardsW(), actual.getNumCardsW());
+        assertEquals(expected.getNumCardsH(), actual.getNumCardsH());
+        assertEquals(expected.getState(), actual.getState());
+        assertEquals(expected.getFlippedCardIdx(), actual.getFlippedCardIdx());
+        assertEquals(expected.getNumMisses(), actual.getNumMisses());
+        assertEquals(expected.getNumPairs(), actual.getNumPairs());
+        assertEquals(expected.getNumRemainingPairs(), actual.getNumRemainingPairs());
+        assertEquals(expected.getNumFaceDownCards(), actual.getNumFaceDownCards());
+        assertArrayEquals(getCards(expected), getCards(actual));
+        for (int i = 0; i < expected.getNumCells(); i++) {
+            assertEquals(expected.getPartnerIdx(i) == -1, actual.getPartnerIdx(i) == -1);
+        }
+    }
+
+    private static int[] getCards(GameBoard board) {
+        int[] cards = new int[board.getNumCells()];
+        for (int i = 0; i < cards.length; i++) {
+            cards[i] = board.getCard(i);
+        }
+        return cards;
+    }
+
+    private static int findCardLeft(GameBoard board) {
+        for (int i = 0; i < board.getNumCells(); i++) {
+            if (board.getCard(i) < 0) {
+                return i;
+            }
+        }
+        throw new AssertionError("No card left");
+    }
+
+    private static int findRandomCardLeft(GameBoard board, Random random) {
+        int start = random.nextInt(board.getNumCells());
+        for (int i = 0; i < board.getNumCells(); i++) {
+            int cardIdx = (start + i) % board.getNumCells();
+            if (board.getCard(cardIdx) < 0) {
+                return cardIdx;
+            }
+        }
+        throw new AssertionError("No card left");
+    }
+
+    private static boolean isFaceLeft(GameBoard board, int face) {
+        for (int i = 0; i < board.getNumCells(); i++) {
+            if (Math.abs(board.getCard(i)) == face) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+        private static int findOtherFace(GameBoard board, int cardIdx) {
+        for (int i = 0; i < board.getNumCells(); i++) {
+            int card = board.getCard(i);
+            if (card != 0 && card != board.getCard(cardIdx)) {
+                return i;
+            }
+        }
+        throw new AssertionError("No other face");
+    }
+}
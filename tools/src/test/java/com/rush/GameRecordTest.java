@@ -0,0 +1,173 @@
+package com.rush;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GameRecordTest {
+    @Test
+    public void replaysTheRecordedGames() throws IOException {
+        GameRecord record = new GameRecord();
+        GameBoard board = new GameBoard();
+        long time = 1000;
+        int[][] sizes = { { 3, 2 }, { 5, 3 }, { 12, 12 }, { 20, 20 } };
+        for (int i = 0; i < sizes.length; i++) {
+            time = playGame(record, board, 100 + i, sizes[i][0], sizes[i][1], time);
+        }
+        byte[] expected = board.saveState();
+
+        GameReplay replay = new GameReplay(record.toByteArray());
+        assertEquals(record.getNumEvents(), replay.getNumEvents());
+        assertEquals(0, replay.getFirstGameEvent());
+        assertEquals(GameRecord.EVENT_NEW_GAME, replay.getEventType(0));
+        assertEquals(100, replay.getSeed(0));
+        assertEquals(3, replay.getNumCardsW(0));
+        assertEquals(2, replay.getNumCardsH(0));
+        assertEquals(0, replay.getEventTime(0));
+        //  every event came 10 ms after the previous one
+        assertEquals(10L*(replay.getNumEvents() - 1), replay.getEventTime(replay.getNumEvents() - 1));
+
+        GameBoard replayed = new GameBoard();
+        assertEquals(0, replay.applyAll(replayed));
+        assertArrayEquals(expected, replayed.saveState());
+        assertTrue(replayed.isGameOver());
+    }
+
+    @Test
+    public void replaysTheRestoredGames() throws IOException {
+        GameBoard board = new GameBoard(7);
+        board.startGame(6, 5);
+        board.flip(0);
+        board.flip(board.getPartnerIdx(0));
+        int cardIdx = 1;
+        while (board.getCard(cardIdx) == 0) {
+            cardIdx++;
+        }
+        board.flip(cardIdx);
+
+        //  the record of a restored game, as the game starts it
+        GameRecord record = new GameRecord();
+        record.addRestore(0, board.saveState());
+        int partner = board.getPartnerIdx(cardIdx);
+        board.flip(partner);
+        record.addFlip(10, partner);
+        playGame(record, board, 8, 4, 3, 20);
+
+        GameBoard replayed = new GameBoard();
+        GameReplay replay = new GameReplay(record.toByteArray());
+        assertEquals(GameRecord.EVENT_RESTORE, replay.getEventType(0));
+        assertEquals(0, replay.applyAll(replayed));
+        assertArrayEquals(board.saveState(), replayed.saveState());
+    }
+
+    @Test
+    public void skipsTheFlipsBeforeTheFirstGame() throws IOException {
+        //  the record of an older game version, started on a restored game
+        GameRecord record = new GameRecord();
+        record.addFlip(0, 4);
+        record.addFlip(10, 7);
+        GameBoard board = new GameBoard();
+        playGame(record, board, 9, 4, 4, 20);
+
+        GameReplay replay = new GameReplay(record.toByteArray());
+        assertEquals(2, replay.getFirstGameEvent());
+        GameBoard replayed = new GameBoard();
+        assertEquals(0, replay.applyAll(replayed));
+        assertArrayEquals(board.saveState(), replayed.saveState());
+
+        GameRecord flipsOnly = new GameRecord();
+        flipsOnly.addFlip(0, 1);
+        GameReplay noGames = new GameReplay(flipsOnly.toByteArray());
+        assertEquals(1, noGames.getFirstGameEvent());
+        assertEquals(0, noGames.applyAll(new GameBoard()));
+    }
+
+    @Test
+    public void countsTheDivergedFlips() throws IOException {
+        GameRecord record = new GameRecord();
+        record.addNewGame(0, 5, 3, 2);
+        record.addFlip(10, 0);
+        //  the face up card, and one off the board
+        record.addFlip(20, 0);
+        record.addFlip(30, 6);
+        assertEquals(2, new GameReplay(record.toByteArray()).applyAll(new GameBoard()));
+    }
+
+    @Test
+    public void rejectsDamagedRecords() {
+        GameRecord record = new GameRecord();
+        record.addNewGame(0, 5, 3, 2);
+        record.addFlip(10, 0);
+        byte[] data = record.toByteArray();
+
+        byte[] badMagic = data.clone();
+        badMagic[0] = 0;
+        assertBad(badMagic);
+
+        byte[] badVersion = data.clone();
+        badVersion[4] = 9;
+        assertBad(badVersion);
+
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        assertBad(truncated);
+
+        byte[] badEvent = data.clone();
+        badEvent[5] = 99;
+        assertBad(badEvent);
+
+        //  a single cell, which has no pair
+        GameRecord badSize = new GameRecord();
+        //  a single cell, which has no pair
+        badSize.addNewGame(0, 5, 1, 1);
+        assertBad(badSize.toByteArray());
+
+        GameBoard board = new GameBoard(1);
+        board.startGame(3, 2);
+        byte[] snapshot = board.saveState();
+        //  a state out of range
+        snapshot[5] = 7;
+        GameRecord badRestore = new GameRecord();
+        badRestore.addRestore(0, snapshot);
+        assertBad(badRestore.toByteArray());
+    }
+
+    /**
+     * Deals and plays a game to the end, logging it as the game does, returns the time of the next event
+     */
+    private static long playGame(GameRecord record, GameBoard board, long seed, int numCardsW, int numCardsH,
+            long time) {
+        board.setSeed(seed);
+        board.startGame(numCardsW, numCardsH);
+        record.addNewGame(time, seed, numCardsW, numCardsH);
+        time += 10;
+        Random random = new Random(seed);
+        MemoryPlayer player = new MemoryPlayer(8, random);
+        player.reset(board);
+        while (!board.isGameOver()) {
+            int cardIdx = player.chooseCard(board);
+            int face = Math.abs(board.getCard(cardIdx));
+            int flippedCardIdx = board.getFlippedCardIdx();
+            int result = board.flip(cardIdx);
+            record.addFlip(time, cardIdx);
+            time += 10;
+            player.onFlipped(cardIdx, face, flippedCardIdx, result);
+        }
+        return time;
+    }
+
+    private static void assertBad(byte[] data) {
+        try {
+            new GameReplay(data);
+            fail();
+        } catch (IOException e) {
+            //  expected
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.rush;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class InputQueueTest {
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityNotPowerOfTwo() {
+        new InputQueue(12);
+    }
+
+    @Test
+    public void pollsTheEventsInOrder() {
+        InputQueue queue = new InputQueue(4);
+        assertTrue(queue.isEmpty());
+        assertFalse(queue.poll());
+        assertTrue(queue.push(InputQueue.EVENT_TOUCH, 10, 20));
+        assertTrue(queue.push(InputQueue.EVENT_ZOOM, -1, 0));
+        assertFalse(queue.isEmpty());
+
+        assertTrue(queue.poll());
+        assertEquals(InputQueue.EVENT_TOUCH, queue.getType());
+        assertEquals(10, queue.getX());
+        assertEquals(20, queue.getY());
+        assertTrue(queue.poll());
+        assertEquals(InputQueue.EVENT_ZOOM, queue.getType());
+        assertEquals(-1, queue.getX());
+        assertFalse(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void dropsTheEventsWhenFull() {
+        InputQueue queue = new InputQueue(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.push(InputQueue.EVENT_SCROLL, i, 0));
+        }
+        assertFalse(queue.push(InputQueue.EVENT_SCROLL, 4, 0));
+        assertTrue(queue.poll());
+        assertEquals(0, queue.getX());
+        assertTrue(queue.push(InputQueue.EVENT_SCROLL, 5, 0));
+        int[] expected = { 1, 2, 3, 5 };
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(queue.poll());
+            assertEquals(expected[i], queue.getX());
+        }
+        assertFalse(queue.poll());
+    }
+
+    @Test
+    public void wrapsAroundTheBuffer() {
+        InputQueue queue = new InputQueue(2);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(queue.push(InputQueue.EVENT_RESIZE, i, -i));
+            assertTrue(queue.poll());
+            assertEquals(i, queue.getX());
+            assertEquals(-i, queue.getY());
+        }
+    }
+
+    @Test
+    public void passesTheEventsBetweenThreads() throws InterruptedException {
+        final int numEvents = 100000;
+        final InputQueue queue = new InputQueue(64);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < numEvents; i++) {
+                    while (!queue.push(InputQueue.EVENT_TOUCH, i, i*2)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        producer.start();
+        for (int i = 0; i < numEvents; i++) {
+            while (!queue.poll()) {
+                Thread.yield();
+            }
+            assertEquals(i, queue.getX());
+            assertEquals(i*2, queue.getY());
+        }
+        producer.join();
+        assertTrue(queue.isEmpty());
+    }
+}
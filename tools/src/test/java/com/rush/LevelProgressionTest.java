@@ -0,0 +1,55 @@
+package com.rush;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class LevelProgressionTest {
+    @Test
+    public void goesThroughTheListedSizes() {
+        LevelProgression levels = LevelProgression.parse("3x2, 4x3,6x4");
+        assertEquals(3, levels.getFirstW());
+        assertEquals(2, levels.getFirstH());
+        assertNext(levels, 3, 2, 4, 3);
+        assertNext(levels, 4, 3, 6, 4);
+        //  without a step the last size repeats
+        assertNext(levels, 6, 4, 6, 4);
+    }
+
+    @Test
+    public void growsByTheStep() {
+        LevelProgression levels = LevelProgression.parse("3x2,4x3,+2x+1");
+        assertNext(levels, 4, 3, 6, 4);
+        assertNext(levels, 6, 4, 8, 5);
+        //  a size off the list grows as well
+        assertNext(levels, 5, 5, 7, 6);
+    }
+
+    @Test
+    public void stopsGrowingAtTheSizeLimit() {
+        LevelProgression levels = LevelProgression.parse("2x2,+1x+1");
+        assertNext(levels, 127, 127, 128, 128);
+        assertNext(levels, 128, 128, 128, 128);
+    }
+
+    @Test
+    public void rejectsBadSpecs() {
+        String[] specs = { "", "3x", "x2", "3x2x1", "ax2", "1x1", "0x4", "3x2,-1x+1", "3x2,+1x1", "+1x+1", "3x2,+ax+1" };
+        for (int i = 0; i < specs.length; i++) {
+            try {
+                LevelProgression.parse(specs[i]);
+                fail("Parsed \"" + specs[i] + "\"");
+            } catch (IllegalArgumentException e) {
+                //  expected
+            }
+        }
+    }
+
+    private static void assertNext(LevelProgression levels, int numCardsW, int numCardsH, int nextW, int nextH) {
+        int[] size = new int[2];
+        levels.getNextSize(numCardsW, numCardsH, size);
+        assertArrayEquals(new int[] { nextW, nextH }, size);
+    }
+}
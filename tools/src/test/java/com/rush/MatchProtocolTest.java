@@ -0,0 +1,107 @@
+package com.rush;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class MatchProtocolTest {
+    @Test
+    public void readsBackEveryMessage() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MatchProtocol.writeJoin(out, 3);
+        MatchProtocol.writeDeal(out, 0x8123456789ABCDEFL, 128, 128, 4, 3);
+        MatchProtocol.writeFlip(out, 1, 16383);
+        MatchProtocol.writeReject(out, 200);
+        MatchProtocol.writeLeft(out, 2);
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        MatchProtocol.Message msg = new MatchProtocol.Message();
+
+        assertTrue(MatchProtocol.read(in, msg));
+        assertEquals(MatchProtocol.MSG_JOIN, msg.mType);
+        assertEquals(MatchProtocol.VERSION, msg.mVersion);
+        assertEquals(3, msg.mNumPlayers);
+
+        assertTrue(MatchProtocol.read(in, msg));
+        assertEquals(MatchProtocol.MSG_DEAL, msg.mType);
+        assertEquals(0x8123456789ABCDEFL, msg.mSeed);
+        assertEquals(128, msg.mNumCardsW);
+        assertEquals(128, msg.mNumCardsH);
+        assertEquals(4, msg.mNumPlayers);
+        assertEquals(3, msg.mPlayer);
+
+        assertTrue(MatchProtocol.read(in, msg));
+        assertEquals(MatchProtocol.MSG_FLIP, msg.mType);
+        assertEquals(1, msg.mPlayer);
+        assertEquals(16383, msg.mCardIdx);
+
+        assertTrue(MatchProtocol.read(in, msg));
+        assertEquals(MatchProtocol.MSG_REJECT, msg.mType);
+        assertEquals(200, msg.mCardIdx);
+
+        assertTrue(MatchProtocol.read(in, msg));
+        assertEquals(MatchProtocol.MSG_LEFT, msg.mType);
+        assertEquals(2, msg.mPlayer);
+
+        //  the stream ended between the messages
+        assertFalse(MatchProtocol.read(in, msg));
+    }
+
+    @Test
+    public void keepsTheFlipsShort() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MatchProtocol.writeFlip(out, 1, 127);
+        assertEquals(3, out.size());
+        out.reset();
+        MatchProtocol.writeFlip(out, 1, GameBoard.MAX_NUM_CELLS - 1);
+        assertEquals(4, out.size());
+    }
+
+    @Test
+    public void rejectsTruncatedMessages() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MatchProtocol.writeDeal(out, -1L, 300, 2, 2, 1);
+        byte[] deal = out.toByteArray();
+        for (int size = 1; size < deal.length; size++) {
+            byte[] truncated = new byte[size];
+            System.arraycopy(deal, 0, truncated, 0, size);
+            try {
+                MatchProtocol.read(new ByteArrayInputStream(truncated), new MatchProtocol.Message());
+                fail("Read a deal of " + size + " bytes");
+            } catch (EOFException e) {
+                //  expected
+            }
+        }
+    }
+
+    @Test
+    public void rejectsBadNumbers() {
+        //  a card index over the int range, and one running past the longest number
+        assertBad(new byte[] { MatchProtocol.MSG_REJECT, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08 });
+        byte[] tooLong = new byte[12];
+        tooLong[0] = MatchProtocol.MSG_LEFT;
+        for (int i = 1; i < tooLong.length; i++) {
+            tooLong[i] = (byte) 0xFF;
+        }
+        assertBad(tooLong);
+        assertBad(new byte[] { 99 });
+    }
+
+    private static void assertBad(byte[] data) {
+        try {
+            MatchProtocol.read(new ByteArrayInputStream(data), new MatchProtocol.Message());
+            fail();
+        } catch (EOFException e) {
+            fail("Not a truncation");
+        } catch (IOException e) {
+            //  expected
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.rush;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MemoryPlayerTest {
+    @Test
+    public void playsEveryBoardToTheEnd() {
+        int[][] sizes = { { 2, 1 }, { 3, 1 }, { 3, 3 }, { 5, 4 }, { 12, 12 }, { 25, 13 } };
+        int[] memorySizes = { 0, 1, 4, MemoryPlayer.PERFECT_RECALL };
+        for (int s = 0; s < sizes.length; s++) {
+            for (int m = 0; m < memorySizes.length; m++) {
+                GameBoard board = new GameBoard(s*10 + m);
+                board.startGame(sizes[s][0], sizes[s][1]);
+                MemoryPlayer player = new MemoryPlayer(memorySizes[m], new Random(m));
+                player.reset(board);
+                while (!board.isGameOver()) {
+                    int cardIdx = player.chooseCard(board);
+                    int face = Math.abs(board.getCard(cardIdx));
+                    int flippedCardIdx = board.getFlippedCardIdx();
+                    int result = board.flip(cardIdx);
+                    //  never picks a matched or the face up card
+                    assertTrue(result != GameBoard.FLIP_IGNORED);
+                    player.onFlipped(cardIdx, face, flippedCardIdx, result);
+                }
+                assertEquals(0, board.getNumRemainingPairs());
+            }
+        }
+    }
+
+    @Test
+    public void playsTheSameGameForTheSameSeed() {
+        assertEquals(playGame(8, 7, 16, 16), playGame(8, 7, 16, 16));
+        assertEquals(playGame(MemoryPlayer.PERFECT_RECALL, 3, 9, 7), playGame(MemoryPlayer.PERFECT_RECALL, 3, 9, 7));
+    }
+
+    @Test
+    public void perfectRecallMissesLessThanTwicePerPair() {
+        //  every card gets turned up by a miss at most once
+        for (int seed = 0; seed < 20; seed++) {
+            GameBoard board = new GameBoard(seed);
+            board.startGame(12, 12);
+            int numPairs = board.getNumPairs();
+            int numMisses = new MemoryPlayer(MemoryPlayer.PERFECT_RECALL, new Random(seed)).playGame(board);
+            assertTrue(numMisses < 2*numPairs);
+        }
+    }
+
+    @Test
+    public void missesMoreWithLessMemory() {
+        int perfectMisses = 0;
+        int forgetfulMisses = 0;
+        for (int seed = 0; seed < 20; seed++) {
+            perfectMisses += playGame(MemoryPlayer.PERFECT_RECALL, seed, 8, 8);
+            forgetfulMisses += playGame(2, seed, 8, 8);
+        }
+        assertTrue(perfectMisses < forgetfulMisses);
+    }
+
+    private static int playGame(int memorySize, long seed, int numCardsW, int numCardsH) {
+        GameBoard board = new GameBoard(seed);
+        board.startGame(numCardsW, numCardsH);
+        return new MemoryPlayer(memorySize, new Random(seed)).playGame(board);
+    }
+}
@@ -0,0 +1,88 @@
+package com.rush;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class PlayerTurnsTest {
+    @Test
+    public void passesTheTurnOnAMiss() {
+        PlayerTurns turns = new PlayerTurns();
+        turns.start(3);
+        assertEquals(0, turns.getCurrentPlayer());
+        turns.onFlipped(GameBoard.FLIP_FIRST);
+        assertEquals(0, turns.getCurrentPlayer());
+        turns.onFlipped(GameBoard.FLIP_MISS);
+        assertEquals(1, turns.getCurrentPlayer());
+        turns.onFlipped(GameBoard.FLIP_MISS);
+        turns.onFlipped(GameBoard.FLIP_MISS);
+        assertEquals(0, turns.getCurrentPlayer());
+        //  the ignored flips change nothing
+        turns.onFlipped(GameBoard.FLIP_IGNORED);
+        assertEquals(0, turns.getCurrentPlayer());
+    }
+
+    @Test
+    public void keepsTheTurnOnAMatch() {
+        PlayerTurns turns = new PlayerTurns();
+        turns.start(2);
+        turns.onFlipped(GameBoard.FLIP_MISS);
+        turns.onFlipped(GameBoard.FLIP_MATCH);
+        turns.onFlipped(GameBoard.FLIP_MATCH);
+        assertEquals(1, turns.getCurrentPlayer());
+        turns.onFlipped(GameBoard.FLIP_MISS);
+        turns.onFlipped(GameBoard.FLIP_WIN);
+        assertEquals(0, turns.getCurrentPlayer());
+        assertEquals(1, turns.getScore(0));
+        assertEquals(2, turns.getScore(1));
+        assertEquals(1, turns.getLeader());
+    }
+
+    @Test
+    public void findsTheLeader() {
+        PlayerTurns turns = new PlayerTurns();
+        turns.start(3);
+        assertEquals(-1, turns.getLeader());
+        turns.onFlipped(GameBoard.FLIP_MATCH);
+        assertEquals(0, turns.getLeader());
+        turns.onFlipped(GameBoard.FLIP_MISS);
+        turns.onFlipped(GameBoard.FLIP_MATCH);
+        assertEquals(-1, turns.getLeader());
+        turns.onFlipped(GameBoard.FLIP_MISS);
+        turns.onFlipped(GameBoard.FLIP_MATCH);
+        turns.onFlipped(GameBoard.FLIP_MATCH);
+        assertEquals(2, turns.getLeader());
+
+        //  a single player always leads
+        turns.start(1);
+        assertEquals(0, turns.getLeader());
+    }
+
+    @Test
+    public void startsOver() {
+        PlayerTurns turns = new PlayerTurns();
+        turns.start(2);
+        turns.onFlipped(GameBoard.FLIP_MATCH);
+        turns.onFlipped(GameBoard.FLIP_MISS);
+        turns.start(4);
+        assertEquals(4, turns.getNumPlayers());
+        assertEquals(0, turns.getCurrentPlayer());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, turns.getScore(i));
+        }
+    }
+
+    @Test
+    public void rejectsBadNumbersOfPlayers() {
+        int[] numPlayers = { 0, -1, PlayerTurns.MAX_PLAYERS + 1 };
+        for (int i = 0; i < numPlayers.length; i++) {
+            try {
+                new PlayerTurns().start(numPlayers[i]);
+                fail("Started with " + numPlayers[i] + " players");
+            } catch (IllegalArgumentException e) {
+                //  expected
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.rush;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.rush.ScoreStore.Score;
+
+public class ScoreStoreTest {
+    private static final int MAX_TOP = 3;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void ranksTheScores() {
+        ScoreStore store = new ScoreStore(new File(mFolder.getRoot(), "scores.bin"), MAX_TOP, 1024);
+        assertEquals(1, store.add(newScore(4, 3, 5, 1000, 1)));
+        //  less misses first, then faster, then earlier
+        assertEquals(1, store.add(newScore(4, 3, 2, 9000, 2)));
+        assertEquals(2, store.add(newScore(4, 3, 2, 9000, 3)));
+        assertEquals(1, store.add(newScore(4, 3, 2, 5000, 4)));
+        assertEquals(0, store.add(newScore(4, 3, 6, 500, 5)));
+        Score[] top = store.getTopScores(4, 3);
+        assertEquals(MAX_TOP, top.length);
+        assertEquals(4, top[0].mTime);
+        assertEquals(2, top[1].mTime);
+        assertEquals(3, top[2].mTime);
+
+        ScoreStore.BoardStats stats = store.getStats(4, 3);
+        assertEquals(5, stats.mNumGames);
+        assertEquals(17, stats.mTotalMisses);
+        assertEquals(24500, stats.mTotalDuration);
+        assertNull(store.getStats(3, 4));
+        assertEquals(0, store.getTopScores(3, 4).length);
+    }
+
+    @Test
+    public void readsBackTheLog() throws IOException {
+        File file = new File(mFolder.getRoot(), "scores.bin");
+        ScoreStore store = new ScoreStore(file, MAX_TOP, 64*1024);
+        store.load();
+        addGames(store, new Random(1), 20);
+        store.flush();
+        addGames(store, new Random(2), 20);
+        store.flush();
+
+        ScoreStore loaded = new ScoreStore(file, MAX_TOP, 64*1024);
+        loaded.load();
+        assertStoresEqual(store, loaded);
+    }
+
+    @Test
+    public void dropsTheCutOffTail() throws IOException {
+        File file = new File(mFolder.getRoot(), "scores.bin");
+        ScoreStore store = new ScoreStore(file, MAX_TOP, 64*1024);
+        store.load();
+        addGames(store, new Random(3), 10);
+        store.flush();
+        long goodSize = file.length();
+        store.add(newScore(4, 3, 0, 100, 1000));
+        store.flush();
+        //  the last record gets cut short, as by a crash in the middle of the write
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(file.length() - 3);
+        } finally {
+            raf.close();
+        }
+
+        ScoreStore loaded = new ScoreStore(file, MAX_TOP, 64*1024);
+        loaded.load();
+        assertEquals(goodSize, file.length());
+        ScoreStore expected = new ScoreStore(new File(mFolder.getRoot(), "expected.bin"), MAX_TOP, 64*1024);
+        addGames(expected, new Random(3), 10);
+        assertStoresEqual(expected, loaded);
+
+        //  the new records go after the last good one
+        loaded.add(newScore(4, 3, 0, 100, 1000));
+        loaded.flush();
+        expected.add(newScore(4, 3, 0, 100, 1000));
+        ScoreStore reloaded = new ScoreStore(file, MAX_TOP, 64*1024);
+        reloaded.load();
+        assertStoresEqual(expected, reloaded);
+    }
+
+    @Test
+    public void keepsAGarbledLogAside() throws IOException {
+        File file = new File(mFolder.getRoot(), "scores.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        } finally {
+            out.close();
+        }
+        ScoreStore store = new ScoreStore(file, MAX_TOP, 64*1024);
+        try {
+            store.load();
+        } catch (IOException e) {
+            //  expected
+        }
+        assertTrue(store.isLoaded());
+        assertTrue(new File(file.getPath() + ".bad").exists());
+        store.add(newScore(4, 3, 1, 100, 1));
+        store.flush();
+        ScoreStore loaded = new ScoreStore(file, MAX_TOP, 64*1024);
+        loaded.load();
+        assertEquals(1, loaded.getStats(4, 3).mNumGames);
+    }
+
+    @Test
+    public void compactsKeepingTheTotalsAndTheLeaderboards() throws IOException {
+        File file = new File(mFolder.getRoot(), "scores.bin");
+        final int compactSize = 512;
+        ScoreStore store = new ScoreStore(file, MAX_TOP, compactSize);
+        store.load();
+        Random random = new Random(4);
+        long prevSize = 0;
+        long maxSize = 0;
+        int numCompactions = 0;
+        for (int i = 0; i < 50; i++) {
+            addGames(store, random, 7);
+            store.flush();
+            if (file.length() < prevSize) {
+                numCompactions++;
+            }
+            prevSize = file.length();
+            maxSize = Math.max(maxSize, prevSize);
+        }
+        assertTrue(numCompactions > 0);
+        //  the leaderboards take most of the limit here, and the log may grow up to twice their size
+        assertTrue(maxSize <= 2*compactSize);
+        assertFalse(new File(mFolder.getRoot(), "scores.bin.tmp").exists());
+
+        ScoreStore loaded = new ScoreStore(file, MAX_TOP, compactSize);
+        loaded.load();
+        assertStoresEqual(store, loaded);
+
+        //  the compacted log takes the appended records as before
+        addGames(loaded, random, 3);
+        loaded.flush();
+        ScoreStore reloaded = new ScoreStore(file, MAX_TOP, compactSize);
+        reloaded.load();
+        assertStoresEqual(loaded, reloaded);
+    }
+
+    private static Score newScore(int numCardsW, int numCardsH, int numMisses, long duration, long time) {
+        return new Score(numCardsW, numCardsH, numMisses, duration, time, new int[] { 1, 7, 144 });
+    }
+
+    //  a few board sizes, so that compaction writes several summaries
+    private static void addGames(ScoreStore store, Random random, int numGames) {
+        for (int i = 0; i < numGames; i++) {
+            int numCardsW = 3 + random.nextInt(3);
+            int numCardsH = 2 + random.nextInt(2);
+            store.add(newScore(numCardsW, numCardsH, random.nextInt(20), 1000 + random.nextInt(100000),
+                    1400000000000L + random.nextInt(1000000)));
+        }
+    }
+
+    private static void assertStoresEqual(ScoreStore expected, ScoreStore actual) {
+        for (int w = 3; w < 6; w++) {
+            for (int h = 2; h < 4; h++) {
+                ScoreStore.BoardStats expectedStats = expected.getStats(w, h);
+                ScoreStore.BoardStats actualStats = actual.getStats(w, h);
+                if (expectedStats == null) {
+                    assertNull(actualStats);
+                    continue;
+                }
+                assertEquals(expectedStats.mNumGames, actualStats.mNumGames);
+                assertEquals(expectedStats.mTotalMisses, actualStats.mTotalMisses);
+                assertEquals(expectedStats.mTotalDuration, actualStats.mTotalDuration);
+                Score[] expectedTop = expected.getTopScores(w, h);
+                Score[] actualTop = actual.getTopScores(w, h);
+                assertEquals(expectedTop.length, actualTop.length);
+                for (int i = 0; i < expectedTop.length; i++) {
+                    assertEquals(expectedTop[i].mNumMisses, actualTop[i].mNumMisses);
+                    assertEquals(expectedTop[i].mDuration, actualTop[i].mDuration);
+                    assertEquals(expectedTop[i].mTime, actualTop[i].mTime);
+                    assertArrayEquals(expectedTop[i].mFaces, actualTop[i].mFaces);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.rush;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class VarIntTest {
+    private static final long[] VALUES = { 0, 1, 127, 128, 255, 16383, 16384, 1L << 28, Integer.MAX_VALUE,
+            1L << 32, 1L << 56, Long.MAX_VALUE };
+    private static final int[] SIZES = { 1, 1, 1, 2, 2, 2, 3, 5, 5, 5, 9, 9 };
+
+    @Test
+    public void readsBackTheWrittenNumbers() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < VALUES.length; i++) {
+            int size = out.size();
+            VarInt.write(out, VALUES[i]);
+            assertEquals(SIZES[i], out.size() - size);
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (int i = 0; i < VALUES.length; i++) {
+            assertEquals(VALUES[i], VarInt.readLong(in));
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void putsTheSameBytes() {
+        for (long value : VALUES) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            VarInt.write(out, value);
+            byte[] buf = new byte[VarInt.MAX_LONG_SIZE + 2];
+            int end = VarInt.put(buf, 2, value);
+            assertEquals(2 + out.size(), end);
+            byte[] written = out.toByteArray();
+            for (int i = 0; i < written.length; i++) {
+                assertEquals(written[i], buf[2 + i]);
+            }
+        }
+    }
+
+    @Test
+    public void readsTheIntsInRange() throws IOException {
+        assertEquals(Integer.MAX_VALUE, VarInt.readInt(toStream(Integer.MAX_VALUE)));
+        try {
+            VarInt.readInt(toStream(Integer.MAX_VALUE + 1L));
+            fail();
+        } catch (EOFException e) {
+            fail("Not a truncation");
+        } catch (IOException e) {
+            //  expected
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void rejectsTruncatedNumbers() throws IOException {
+        VarInt.readLong(new ByteArrayInputStream(new byte[] { (byte) 0x80, (byte) 0x80 }));
+    }
+
+    @Test
+    public void rejectsNumbersOutOfTheLongRange() {
+        //  the 64th bit, which would make the number negative
+        byte[] negative = new byte[VarInt.MAX_LONG_SIZE];
+        for (int i = 0; i < negative.length - 1; i++) {
+            negative[i] = (byte) 0xFF;
+        }
+        negative[negative.length - 1] = 1;
+        assertBad(negative);
+
+        byte[] overflow = negative.clone();
+        overflow[overflow.length - 1] = 2;
+        assertBad(overflow);
+
+        byte[] tooLong = new byte[VarInt.MAX_LONG_SIZE + 1];
+        for (int i = 0; i < tooLong.length - 1; i++) {
+            tooLong[i] = (byte) 0x80;
+        }
+        assertBad(tooLong);
+    }
+
+    private static ByteArrayInputStream toStream(long value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VarInt.write(out, value);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private static void assertBad(byte[] data) {
+        try {
+            VarInt.readLong(new ByteArrayInputStream(data));
+            fail();
+        } catch (EOFException e) {
+            fail("Not a truncation");
+        } catch (IOException e) {
+            //  expected
+        }
+    }
+}